@@ -1,16 +1,15 @@
 package rubberband;
 
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
 import java.lang.reflect.Method;
 
 import processing.core.PApplet;
-import processing.serial.Serial;
 
 public class ArduinoIO {
 
 	private final PApplet pApplet;
 	private final Object parent;
-	private Serial serial; // The serial port
+	private SensorSource source;
 	private int numOfStrainSensors;
 	private int numOfNeoLeds;
 	private int numOfTouchSensors;
@@ -19,14 +18,33 @@ public class ArduinoIO {
 	private double[] tsVal;
 	
 	private int[] val;      // Data received from the serial port
+	private volatile CoalescePolicy policy = Params.COALESCE_POLICY;
+
+	// frames published by the source thread, drained by update()
+	private SensorFrameRing frames;
+	private SessionRecorder recorder;
 	
-	private static int[] mapping = Params.STRIP.strain_gauge_mapping;
+	private final StripInfo strip;
+	private final int[] mapping;
 
 	private Method strainGaugeEventMethod;
 
 	public ArduinoIO(final PApplet pApplet, Object anotherParent,
 			int numOfStrainSensors, int numOfNeoLeds, int numOfTouchSensors) {
+		this(pApplet, anotherParent, Params.STRIP, null,
+				numOfStrainSensors, numOfNeoLeds, numOfTouchSensors);
+	}
+
+	/**
+	 * Reads frames of the given strip from source, or when it is null from
+	 * Params.REPLAY_FILE if set and the strip's serial port otherwise.
+	 */
+	public ArduinoIO(final PApplet pApplet, Object anotherParent, StripInfo strip,
+			SensorSource source, int numOfStrainSensors, int numOfNeoLeds, int numOfTouchSensors) {
 		this.pApplet = pApplet;
+		this.strip = strip;
+		this.mapping = strip.strain_gauge_mapping;
+		this.source = source;
 		this.numOfStrainSensors = numOfStrainSensors;
 		this.numOfNeoLeds = numOfNeoLeds;
 		this.numOfTouchSensors = numOfTouchSensors;
@@ -52,17 +70,26 @@ public class ArduinoIO {
 	}
 
 	public void setup() {
-
-		String[] serialDevices = Serial.list();
-		System.out.println(serialDevices.length);
-		for (int i = 0; i < serialDevices.length; i++)
-			System.out.println(serialDevices[i]);
-
-		//serial = new Serial(pApplet, Serial.list()[6], 9600);
-		serial = new Serial(pApplet, "/dev/tty.usbmodem1411", 57600);
-		
 		val = new int[numOfStrainSensors + numOfTouchSensors + numOfDummies];
 		//values = new int[numOfStrainSensors + numOfTouchSensors][width];
+
+		if (source == null)
+			source = createSource();
+		frames = new SensorFrameRing(Params.SENSOR_RING_SIZE, val.length);
+		recorder = new SessionRecorder(val.length, Params.RECORD_QUEUE_SIZE);
+		source.setCoalescePolicy(policy);
+		start();
+	}
+
+	private SensorSource createSource() {
+		if (Params.REPLAY_FILE != null) {
+			try {
+				return new ReplaySensorSource(Params.REPLAY_FILE, Params.REPLAY_SPEED);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return new SerialSensorSource(pApplet, strip.getSerialPort(), 57600, val.length);
 	}
 
 	public void setNeoPixels(byte[] data) {
@@ -71,29 +98,57 @@ public class ArduinoIO {
 		// System.out.println("");
 		// System.out.println("data.length: " + data.length);
 
-		serial.write(data);
+		source.write(data);
 	}
-	
-	float readFloat(Serial s) {
-		return Float.intBitsToFloat(s.read()+(s.read()<<8)+(s.read()<<16)+(s.read()<<24));
+
+	public void start() {
+		source.start(frames, recorder);
+	}
+
+	public void stop() {
+		source.stop();
+		recorder.close();
 	}
 
+	// ////////////////////////////////////////////////////////////////////////////////
+	// render thread, consumer of the frame ring
+	// ////////////////////////////////////////////////////////////////////////////////
+
 	public void update() {
-		
-		int wantSize = numOfStrainSensors + numOfTouchSensors + numOfDummies;
-		while (serial.available() >= 100) {
-		    if (serial.read() == 0xff) {
-		      if (serial.read() == 0xfe) {
-		        
-		        for(int i=0; i<wantSize; i++) {
-		          val[i] = (int)((serial.read() << 8) | (serial.read()));
-		        }
-		        
-		        ((RubberbandTest) parent).motionEvent(readFloat(serial), readFloat(serial), readFloat(serial));
-		      }
-		    }
+		RubberbandTest rubberband = (RubberbandTest) parent;
+		SensorFrame frame;
+		boolean received = false;
+		while ((frame = frames.peek()) != null) {
+			boolean newest = frames.size() == 1;
+			if (received) {
+				// the previous frame has been superseded
+				if (policy == CoalescePolicy.FOLD)
+					rubberband.strainGaugeSample(gsVal);
+				else if (policy == CoalescePolicy.EVERY)
+					dispatch(rubberband);
+			}
+			if (newest || policy == CoalescePolicy.EVERY)
+				rubberband.motionEvent(frame.yaw, frame.pitch, frame.roll);
+			if (newest || policy != CoalescePolicy.LATEST)
+				map(frame);
+			frames.release();
+			received = true;
 		}
+		if (!received)
+			return;
+
+		dispatch(rubberband);
 		
+		if (Params.DEBUG) {
+			for(int i = 0; i < gsVal.length; i++) {
+				System.out.print(gsVal[i]+" ");
+			}
+			System.out.println();
+		}
+	}
+
+	private void map(SensorFrame frame) {
+		int[] val = frame.values;
 		for (int i = 0; i < numOfStrainSensors; i++){
 			gsVal[i] = val[2*mapping[i]+1];
 		}
@@ -101,58 +156,36 @@ public class ArduinoIO {
 		for (int i = 0; i < numOfTouchSensors; i++){
 			tsVal[i] = val[2*i];
 		}
-		
-		((RubberbandTest) parent).strainGaugeEvent(gsVal);
-		((RubberbandTest) parent).touchSensorEvent(tsVal);
-		
-		
-		for(int i = 0; i < gsVal.length; i++) {
-			System.out.print(gsVal[i]+" ");
-		}
-		System.out.println();
-		
-		
-		/*int wantSize = numOfStrainSensors + numOfTouchSensors;
-
-		while (serial.available() > 0) {
-			String inData = serial.readStringUntil(10);
-			if (inData != null) {
-				inData = inData.trim();
-
-				String[] data = inData.split(",");
-				int length = data.length;
-
-				if (length != wantSize) {
-					System.out.print("[StrainGauge] data unmatch. ");
-					System.out.println("should be (" + wantSize + "), but ("
-							+ length + "), try config in Arduino part.");
-				} else {
-					// System.out.println(inData);
-
-					double[] temp = new double[length];
-					for (int i = 0; i < length; i++)
-						temp[i] = Double.parseDouble(data[i]);
-
-					for (int i = 0; i < gsVal.length; i++)
-						gsVal[i] = temp[i];
-
-					((RubberbandTest) parent).strainGaugeEvent(gsVal);
-
-					// try {
-					// strainGaugeEventMethod.invoke(parent, gsVal);
-					// } catch (IllegalAccessException e) {
-					// // TODO Auto-generated catch block
-					// e.printStackTrace();
-					// } catch (InvocationTargetException e) {
-					// // TODO Auto-generated catch block
-					// e.printStackTrace();
-					// } catch (NullPointerException e) {
-					// throw new RuntimeException(
-					// "You need to implement the gsNailEvent(double[] value) function to handle the hall sensor data.");
-					// }
-				}
-			}
-		}*/
 	}
 
+	private void dispatch(RubberbandTest rubberband) {
+		rubberband.strainGaugeEvent(gsVal);
+		rubberband.touchSensorEvent(tsVal);
+	}
+
+	public void setCoalescePolicy(CoalescePolicy policy) {
+		this.policy = policy;
+		source.setCoalescePolicy(policy);
+	}
+
+	public CoalescePolicy getCoalescePolicy() { return policy; }
+
+	public SensorFrameRing getFrames() { return frames; }
+
+	/** Records the frames decoded by the reader thread, see SessionRecorder. */
+	public SessionRecorder getRecorder() { return recorder; }
+
+	/** Frames lost to a full ring, decoder rejects are counted by getCorruptFrames(). */
+	public long getDroppedFrames() { return frames.getDropped(); }
+
+	public long getCorruptFrames() { return source.getCorruptFrames(); }
+
+	public long getSkippedBytes() { return source.getSkippedBytes(); }
+
+	public long getSupersededFrames() { return source.getSupersededFrames(); }
+
+	public SensorSource getSource() { return source; }
+
+	public StripInfo getStrip() { return strip; }
+
 }
@@ -0,0 +1,466 @@
+package rubberband;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import libsvm.svm;
+import libsvm.svm_model;
+
+import rubberband.math.FilterChain;
+
+/**
+ * Re-scores recorded gestures with a trained model. Input files are either
+ * libsvm format ("label index:value ...") or Record_*.txt captures with one
+ * space separated value per sensor on each line; the label of a capture is
+ * given on the command line.
+ *
+ * Record_*.rbs[.gz] sessions written by SessionRecorder are labeled the same
+ * way. Their raw frames are mapped to gauges by the strip's
+ * strain_gauge_mapping and filtered like the live engine does, in frame order
+ * on the reading thread, so each row holds what a Record_*.txt line held.
+ *
+ * Lines are read in chunks and classified on a fixed thread pool, each
+ * worker owns its classifier and scratch vector. Only a bounded number of
+ * chunks is in flight, so files of any size stream through in constant
+ * memory.
+ *
+ * usage: BatchClassifier [-t threads] [-c lines] [-l label] model_file [-l label] file...
+ */
+public class BatchClassifier {
+
+	private static final int UNLABELED = Integer.MIN_VALUE;
+
+	private final int numFeatures;
+	private final int[] labels;
+
+	// confusion[actual][predicted], row labels.length holds unknown labels
+	private final long[][] confusion;
+	private long rows = 0;
+	private long malformed = 0;
+
+	private final ExecutorService pool;
+	private final Semaphore inFlight;
+	private final ThreadLocal<Worker> workers;
+
+	public BatchClassifier(final svm_model model, final int numFeatures, int threads) {
+		this.numFeatures = numFeatures;
+		labels = new int[svm.svm_get_nr_class(model)];
+		svm.svm_get_labels(model, labels);
+		confusion = new long[labels.length + 1][labels.length];
+
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BatchClassifier-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		inFlight = new Semaphore(2 * threads);
+		workers = new ThreadLocal<Worker>() {
+			protected Worker initialValue() {
+				return new Worker(new ShapeClassifier(model, numFeatures), labels.length);
+			}
+		};
+	}
+
+	private class Worker {
+		final ShapeClassifier classifier;
+		final double[] values;
+		final Cursor cursor = new Cursor();
+		final long[][] counts;
+		long rows, malformed;
+		int label; // label of the last line read
+
+		Worker(ShapeClassifier classifier, int nrClass) {
+			this.classifier = classifier;
+			values = new double[numFeatures];
+			counts = new long[nrClass + 1][nrClass];
+		}
+
+		void run(double[][] vectors, int count, int fixedLabel) {
+			int labelIndex = indexOf(fixedLabel);
+			for (int i = 0; i < count; i++) {
+				counts[labelIndex][indexOf(classifier.classify(vectors[i]))]++;
+				rows++;
+			}
+			merge(this);
+		}
+
+		void run(String[] lines, int count, boolean sparse, int fixedLabel) {
+			for (int i = 0; i < count; i++) {
+				Arrays.fill(values, 0);
+				label = fixedLabel;
+				int result = sparse ? parseSparse(lines[i]) : parseDense(lines[i]);
+				if (result == PARSE_EMPTY)
+					continue;
+				if (result == PARSE_ERROR) {
+					malformed++;
+					continue;
+				}
+				int predicted = classifier.classify(values);
+				counts[indexOf(label)][indexOf(predicted)]++;
+				rows++;
+			}
+			merge(this);
+		}
+
+		private int parseSparse(String line) {
+			Cursor c = cursor.reset(line);
+			if (!c.skipBlank())
+				return PARSE_EMPTY;
+			double target = c.number();
+			if (Double.isNaN(target))
+				return PARSE_ERROR;
+			label = (int) target;
+			while (c.skipBlank()) {
+				double index = c.number();
+				if (Double.isNaN(index) || !c.expect(':'))
+					return PARSE_ERROR;
+				double value = c.number();
+				if (Double.isNaN(value))
+					return PARSE_ERROR;
+				int f = (int) index - 1;
+				if (f >= 0 && f < values.length)
+					values[f] = value;
+			}
+			return PARSE_OK;
+		}
+
+		private int parseDense(String line) {
+			Cursor c = cursor.reset(line);
+			int n = 0;
+			while (c.skipBlank()) {
+				double value = c.number();
+				if (Double.isNaN(value) || n == values.length)
+					return PARSE_ERROR;
+				values[n++] = value;
+			}
+			if (n == 0)
+				return PARSE_EMPTY;
+			return n == values.length ? PARSE_OK : PARSE_ERROR;
+		}
+	}
+
+	private static final int PARSE_OK = 0;
+	private static final int PARSE_EMPTY = 1;
+	private static final int PARSE_ERROR = 2;
+
+	/** Index of label in the model labels, labels.length when unknown. */
+	private int indexOf(int label) {
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] == label)
+				return i;
+		}
+		return labels.length;
+	}
+
+	private synchronized void merge(Worker w) {
+		for (int i = 0; i < confusion.length; i++) {
+			for (int j = 0; j < confusion[i].length; j++) {
+				confusion[i][j] += w.counts[i][j];
+				w.counts[i][j] = 0;
+			}
+		}
+		rows += w.rows;
+		malformed += w.malformed;
+		w.rows = 0;
+		w.malformed = 0;
+	}
+
+	/**
+	 * Streams one file through the pool. The label is used for dense
+	 * captures, pass UNLABELED when it isn't known.
+	 */
+	public void submit(String file, int label, int chunkLines) throws IOException, InterruptedException {
+		if (chunkLines < 1)
+			throw new IllegalArgumentException("chunkLines must be at least 1, not " + chunkLines);
+		if (file.endsWith(".rbs") || file.endsWith(".rbs.gz")) {
+			submitSession(file, label, chunkLines);
+			return;
+		}
+		BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16);
+		try {
+			String first = in.readLine();
+			if (first == null)
+				return;
+			final boolean sparse = first.indexOf(':') >= 0;
+			final int fixedLabel = label;
+
+			String[] chunk = new String[chunkLines];
+			int count = 0;
+			for (String line = first; line != null; line = in.readLine()) {
+				chunk[count++] = line;
+				if (count == chunkLines) {
+					dispatch(chunk, count, sparse, fixedLabel);
+					chunk = new String[chunkLines];
+					count = 0;
+				}
+			}
+			if (count > 0)
+				dispatch(chunk, count, sparse, fixedLabel);
+		} finally {
+			in.close();
+		}
+	}
+
+	// filters run in frame order here, only the classification is parallel
+	private void submitSession(String file, int label, int chunkLines)
+			throws IOException, InterruptedException {
+		ReplaySensorSource session = new ReplaySensorSource(file, 0);
+		StripInfo strip = Params.STRIP;
+		int[] mapping = strip.strain_gauge_mapping;
+		int numGauges = Math.min(mapping.length, numFeatures);
+		String filterSpec = strip.filter_chain != null ? strip.filter_chain : Params.FILTER_CHAIN;
+		StrainGauge[] gauges = new StrainGauge[numGauges];
+		for (int i = 0; i < numGauges; i++) {
+			if (2 * mapping[i] + 1 >= session.numValues())
+				throw new IOException(file + " has " + session.numValues()
+						+ " values per frame, too few for the strip mapping");
+			gauges[i] = new StrainGauge(Params.GAUGE_LENGTH, FilterChain.parse(filterSpec));
+		}
+
+		SensorFrame frame = new SensorFrame(session.numValues());
+		double[][] chunk = new double[chunkLines][numFeatures];
+		int count = 0;
+		for (int f = 0, n = session.numFrames(); f < n; f++) {
+			session.frame(f, frame);
+			double[] row = chunk[count++];
+			for (int i = 0; i < numGauges; i++) {
+				gauges[i].update(frame.values[2 * mapping[i] + 1]);
+				row[i] = gauges[i].getCurrentValue();
+			}
+			if (count == chunkLines) {
+				dispatch(chunk, count, label);
+				chunk = new double[chunkLines][numFeatures];
+				count = 0;
+			}
+		}
+		if (count > 0)
+			dispatch(chunk, count, label);
+	}
+
+	private void dispatch(final String[] chunk, final int count, final boolean sparse,
+			final int label) throws InterruptedException {
+		execute(new Runnable() {
+			public void run() {
+				workers.get().run(chunk, count, sparse, label);
+			}
+		});
+	}
+
+	private void dispatch(final double[][] chunk, final int count, final int label)
+			throws InterruptedException {
+		execute(new Runnable() {
+			public void run() {
+				workers.get().run(chunk, count, label);
+			}
+		});
+	}
+
+	private void execute(final Runnable task) throws InterruptedException {
+		inFlight.acquire();
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					inFlight.release();
+				}
+			}
+		});
+	}
+
+	public void finish() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	public synchronized void report(long nanos) {
+		long correct = 0, labeled = 0;
+		for (int i = 0; i < labels.length; i++) {
+			correct += confusion[i][i];
+			for (int j = 0; j < labels.length; j++)
+				labeled += confusion[i][j];
+		}
+
+		System.out.println("rows: " + rows + ", malformed: " + malformed);
+		if (labeled > 0)
+			System.out.println("Accuracy = " + (double) correct / labeled * 100
+					+ "% (" + correct + "/" + labeled + ")");
+
+		StringBuilder sb = new StringBuilder("actual\\predicted");
+		for (int j = 0; j < labels.length; j++)
+			sb.append('\t').append(labels[j]);
+		System.out.println(sb);
+		for (int i = 0; i <= labels.length; i++) {
+			sb.setLength(0);
+			sb.append(i < labels.length ? Integer.toString(labels[i]) : "other");
+			for (int j = 0; j < labels.length; j++)
+				sb.append('\t').append(confusion[i][j]);
+			System.out.println(sb);
+		}
+
+		double seconds = nanos / 1e9;
+		System.out.println("time: " + (float) seconds + " s, "
+				+ (long) (rows / Math.max(seconds, 1e-9)) + " rows/s");
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Parsing without tokenizer or per-value allocation
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	static class Cursor {
+		private String s;
+		private int pos, len;
+
+		Cursor reset(String line) {
+			s = line;
+			pos = 0;
+			len = line.length();
+			return this;
+		}
+
+		/** Skips whitespace, returns false at the end of the line. */
+		boolean skipBlank() {
+			while (pos < len && s.charAt(pos) <= ' ')
+				pos++;
+			return pos < len;
+		}
+
+		boolean expect(char ch) {
+			if (pos < len && s.charAt(pos) == ch) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reads a decimal number, NaN when there is none. Values that can't be
+		 * rounded exactly from a long mantissa go through Double.parseDouble.
+		 */
+		double number() {
+			int begin = pos;
+			boolean negative = false;
+			if (pos < len && (s.charAt(pos) == '-' || s.charAt(pos) == '+'))
+				negative = s.charAt(pos++) == '-';
+
+			long mantissa = 0;
+			int digits = 0, fraction = 0;
+			boolean dot = false, any = false;
+			for (; pos < len; pos++) {
+				char ch = s.charAt(pos);
+				if (ch >= '0' && ch <= '9') {
+					any = true;
+					if (mantissa != 0 || ch != '0')
+						digits++;
+					mantissa = mantissa * 10 + (ch - '0');
+					if (dot)
+						fraction++;
+				}
+				else if (ch == '.' && !dot)
+					dot = true;
+				else
+					break;
+			}
+			if (!any)
+				return Double.NaN;
+
+			int exponent = 0;
+			if (pos < len && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+				pos++;
+				boolean negExp = false;
+				if (pos < len && (s.charAt(pos) == '-' || s.charAt(pos) == '+'))
+					negExp = s.charAt(pos++) == '-';
+				int start = pos;
+				while (pos < len && s.charAt(pos) >= '0' && s.charAt(pos) <= '9')
+					exponent = exponent * 10 + (s.charAt(pos++) - '0');
+				if (pos == start)
+					return Double.NaN;
+				if (negExp)
+					exponent = -exponent;
+			}
+			exponent -= fraction;
+
+			double v;
+			if (digits <= 15 && exponent >= -22 && exponent <= 22)
+				v = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+			else
+				return Double.parseDouble(s.substring(begin, pos));
+			return negative ? -v : v;
+		}
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Command line
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	private static void exit_with_help() {
+		System.err.print("usage: BatchClassifier [options] model_file file...\n"
+				+ "options:\n"
+				+ "-t threads : worker threads (default number of processors)\n"
+				+ "-c lines : lines per chunk (default 4096)\n"
+				+ "-l label : label of the Record_*.txt and Record_*.rbs files that follow\n");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunk = 4096;
+		int label = UNLABELED;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i += 2) {
+			if (i + 1 >= args.length)
+				exit_with_help();
+			switch (args[i].length() == 2 ? args[i].charAt(1) : '?') {
+			case 't':
+				threads = Math.max(Integer.parseInt(args[i + 1]), 1);
+				break;
+			case 'c':
+				chunk = Math.max(Integer.parseInt(args[i + 1]), 1);
+				break;
+			case 'l':
+				label = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				exit_with_help();
+			}
+		}
+		if (i >= args.length - 1)
+			exit_with_help();
+
+		svm_model model = svm.svm_load_model(args[i++]);
+		BatchClassifier batch = new BatchClassifier(model, Params.NUM_STRAIN_SENSORS, threads);
+
+		long t0 = System.nanoTime();
+		int files = 0;
+		try {
+			for (; i < args.length; i++) {
+				if (args[i].equals("-l") && i + 1 < args.length) {
+					label = Integer.parseInt(args[++i]);
+					continue;
+				}
+				batch.submit(args[i], label, chunk);
+				files++;
+			}
+		} finally {
+			batch.finish();
+		}
+		System.out.println("files: " + files);
+		batch.report(System.nanoTime() - t0);
+	}
+}
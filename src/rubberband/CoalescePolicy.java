@@ -0,0 +1,13 @@
+package rubberband;
+
+/**
+ * What to do with sensor frames that queue up faster than draw() consumes them.
+ */
+public enum CoalescePolicy {
+	// every frame runs the full pipeline, work grows with the backlog
+	EVERY,
+	// superseded frames are skipped without decoding, only the newest is processed
+	LATEST,
+	// superseded frames only feed the strain gauge moving average
+	FOLD
+}
@@ -0,0 +1,317 @@
+package rubberband;
+
+import java.io.IOException;
+import java.util.Random;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * A loaded libsvm model flattened for dense feature vectors. Support vectors
+ * are stored row by row in one double[], so prediction is a straight kernel
+ * loop instead of libsvm's walk over sparse svm_node[][] rows. For a linear
+ * kernel the one-vs-one decision functions are collapsed into one weight
+ * vector per class pair. For RBF, |sv|^2 is precomputed so each kernel is
+ * one dot product, and exp() is skipped where it would underflow to 0.
+ *
+ * Against svm.svm_predict() on the shipped RBF model (20 support vectors, 16
+ * features) main() measures between 1.1x and 2x across runs, with identical
+ * predictions. That is the limit for a model this small: the 20 exp() calls
+ * and 320 multiply-adds every prediction needs are most of libsvm's time as
+ * well, only its sparse node walk is saved. Linear models skip the kernel
+ * loop altogether.
+ *
+ * The compiled model is immutable and can be shared between threads, the
+ * scratch buffers passed to predict() cannot.
+ */
+public class CompiledSvmModel {
+
+	private final int svmType;
+	private final int kernelType;
+	private final int degree;
+	private final double gamma;
+	private final double coef0;
+
+	private final int dim;
+	private final int l;          // number of support vectors
+	private final int nrClass;
+	private final int[] label;
+	private final int[] start;    // first support vector of each class
+	private final int[] count;    // support vectors of each class
+	private final double[] sv;    // l x dim
+	private final double[] svNorm; // |sv|^2 of each support vector, RBF only
+	private final double[][] coef;
+	private final double[] rho;
+
+	// Math.exp(x) is exactly 0 below this
+	private static final double EXP_UNDERFLOW = -745.2;
+
+	// linear kernel only, one weight vector per class pair
+	private final double[] pairWeights;
+
+	public CompiledSvmModel(svm_model model, int dim) {
+		svm_parameter param = model.param;
+		if (!canCompile(model))
+			throw new IllegalArgumentException("precomputed kernels can't be compiled");
+
+		svmType = param.svm_type;
+		kernelType = param.kernel_type;
+		degree = param.degree;
+		gamma = param.gamma;
+		coef0 = param.coef0;
+
+		this.dim = dim;
+		l = model.l;
+		nrClass = model.nr_class;
+		rho = model.rho.clone();
+		coef = new double[model.sv_coef.length][];
+		for (int i = 0; i < coef.length; i++)
+			coef[i] = model.sv_coef[i].clone();
+
+		sv = new double[l * dim];
+		for (int i = 0; i < l; i++) {
+			svm_node[] row = model.SV[i];
+			for (int j = 0; j < row.length; j++) {
+				int f = row[j].index - 1;
+				if (f < 0 || f >= dim)
+					throw new IllegalArgumentException("feature index " + row[j].index
+							+ " outside of 1.." + dim);
+				sv[i * dim + f] = row[j].value;
+			}
+		}
+
+		if (kernelType == svm_parameter.RBF) {
+			svNorm = new double[l];
+			for (int i = 0; i < l; i++)
+				svNorm[i] = dot(sv, i * dim, sv, i * dim);
+		}
+		else
+			svNorm = null;
+
+		if (isClassification()) {
+			label = model.label.clone();
+			start = new int[nrClass];
+			count = model.nSV.clone();
+			for (int i = 1; i < nrClass; i++)
+				start[i] = start[i - 1] + count[i - 1];
+		}
+		else {
+			label = null;
+			start = null;
+			count = null;
+		}
+
+		if (kernelType == svm_parameter.LINEAR && isClassification())
+			pairWeights = collapsePairs();
+		else
+			pairWeights = null;
+	}
+
+	/** Precomputed kernels need the training set and stay with libsvm. */
+	public static boolean canCompile(svm_model model) {
+		return model.param.kernel_type != svm_parameter.PRECOMPUTED;
+	}
+
+	private boolean isClassification() {
+		return svmType == svm_parameter.C_SVC || svmType == svm_parameter.NU_SVC;
+	}
+
+	private double[] collapsePairs() {
+		int pairs = nrClass * (nrClass - 1) / 2;
+		double[] w = new double[pairs * dim];
+		int p = 0;
+		for (int i = 0; i < nrClass; i++) {
+			for (int j = i + 1; j < nrClass; j++) {
+				int o = p * dim;
+				for (int k = 0; k < count[i]; k++)
+					addScaled(w, o, coef[j - 1][start[i] + k], start[i] + k);
+				for (int k = 0; k < count[j]; k++)
+					addScaled(w, o, coef[i][start[j] + k], start[j] + k);
+				p++;
+			}
+		}
+		return w;
+	}
+
+	private void addScaled(double[] w, int offset, double a, int svIndex) {
+		int r = svIndex * dim;
+		for (int f = 0; f < dim; f++)
+			w[offset + f] += a * sv[r + f];
+	}
+
+	/** Size of the kernel buffer predict() needs. */
+	public int kernelBufferSize() { return l; }
+
+	/** Size of the vote buffer predict() needs. */
+	public int voteBufferSize() { return Math.max(nrClass, 1); }
+
+	/**
+	 * Predicts the label (or regression value) of the dense feature vector x,
+	 * same result as svm.svm_predict(). kvalue and vote are scratch space.
+	 */
+	public double predict(double[] x, double[] kvalue, int[] vote) {
+		if (!isClassification()) {
+			kernels(x, kvalue);
+			double sum = 0;
+			double[] c = coef[0];
+			for (int i = 0; i < l; i++)
+				sum += c[i] * kvalue[i];
+			sum -= rho[0];
+			if (svmType == svm_parameter.ONE_CLASS)
+				return sum > 0 ? 1 : -1;
+			return sum;
+		}
+
+		for (int i = 0; i < nrClass; i++)
+			vote[i] = 0;
+
+		int p = 0;
+		if (pairWeights != null) {
+			for (int i = 0; i < nrClass; i++) {
+				for (int j = i + 1; j < nrClass; j++) {
+					double sum = dot(pairWeights, p * dim, x) - rho[p];
+					if (sum > 0)
+						++vote[i];
+					else
+						++vote[j];
+					p++;
+				}
+			}
+		}
+		else {
+			kernels(x, kvalue);
+			for (int i = 0; i < nrClass; i++) {
+				for (int j = i + 1; j < nrClass; j++) {
+					double sum = 0;
+					int si = start[i];
+					int sj = start[j];
+					double[] coef1 = coef[j - 1];
+					double[] coef2 = coef[i];
+					for (int k = 0; k < count[i]; k++)
+						sum += coef1[si + k] * kvalue[si + k];
+					for (int k = 0; k < count[j]; k++)
+						sum += coef2[sj + k] * kvalue[sj + k];
+					sum -= rho[p];
+					if (sum > 0)
+						++vote[i];
+					else
+						++vote[j];
+					p++;
+				}
+			}
+		}
+
+		int best = 0;
+		for (int i = 1; i < nrClass; i++) {
+			if (vote[i] > vote[best])
+				best = i;
+		}
+		return label[best];
+	}
+
+	private void kernels(double[] x, double[] kvalue) {
+		switch (kernelType) {
+		case svm_parameter.RBF:
+			// |x - sv|^2 = |x|^2 + |sv|^2 - 2 x.sv, one dot product per vector
+			double xx = dot(x, 0, x, 0);
+			for (int i = 0; i < l; i++) {
+				double arg = -gamma * Math.max(xx + svNorm[i] - 2 * dot(sv, i * dim, x, 0), 0);
+				// exp() takes a slow path on its way to 0 for far support vectors
+				kvalue[i] = arg < EXP_UNDERFLOW ? 0 : Math.exp(arg);
+			}
+			break;
+		case svm_parameter.POLY:
+			for (int i = 0; i < l; i++)
+				kvalue[i] = powi(gamma * dot(sv, i * dim, x) + coef0, degree);
+			break;
+		case svm_parameter.SIGMOID:
+			for (int i = 0; i < l; i++)
+				kvalue[i] = Math.tanh(gamma * dot(sv, i * dim, x) + coef0);
+			break;
+		default: // LINEAR
+			for (int i = 0; i < l; i++)
+				kvalue[i] = dot(sv, i * dim, x);
+			break;
+		}
+	}
+
+	private double dot(double[] m, int offset, double[] x) {
+		return dot(m, offset, x, 0);
+	}
+
+	private double dot(double[] a, int aOffset, double[] b, int bOffset) {
+		double sum = 0;
+		for (int f = 0; f < dim; f++)
+			sum += a[aOffset + f] * b[bOffset + f];
+		return sum;
+	}
+
+	private static double powi(double base, int times) {
+		double tmp = base, ret = 1.0;
+		for (int t = times; t > 0; t /= 2) {
+			if (t % 2 == 1)
+				ret *= tmp;
+			tmp = tmp * tmp;
+		}
+		return ret;
+	}
+
+	public int dimensions() { return dim; }
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Check against libsvm and time both paths
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "train.libsvm.model";
+		int n = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int dim = Params.NUM_STRAIN_SENSORS;
+
+		svm_model model = svm.svm_load_model(file);
+		CompiledSvmModel compiled = new CompiledSvmModel(model, dim);
+		double[] kvalue = new double[compiled.kernelBufferSize()];
+		int[] vote = new int[compiled.voteBufferSize()];
+
+		// random vectors around the support vectors
+		Random rand = new Random(1);
+		double[][] xs = new double[1024][dim];
+		svm_node[][] nodes = new svm_node[xs.length][dim];
+		for (int i = 0; i < xs.length; i++) {
+			int s = rand.nextInt(compiled.l);
+			for (int f = 0; f < dim; f++) {
+				xs[i][f] = compiled.sv[s * dim + f] + rand.nextGaussian() * 4;
+				nodes[i][f] = new svm_node();
+				nodes[i][f].index = f + 1;
+				nodes[i][f].value = xs[i][f];
+			}
+		}
+
+		int mismatch = 0;
+		int first = 0;
+		for (int i = 0; i < xs.length; i++) {
+			double expected = svm.svm_predict(model, nodes[i]);
+			if (expected != compiled.predict(xs[i], kvalue, vote))
+				mismatch++;
+			if (expected == model.label[0])
+				first++;
+		}
+		System.out.println("mismatches: " + mismatch + " / " + xs.length
+				+ ", label " + model.label[0] + ": " + first);
+
+		for (int round = 0; round < 3; round++) {
+			double sink = 0;
+			long t0 = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += svm.svm_predict(model, nodes[i & 1023]);
+			long t1 = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += compiled.predict(xs[i & 1023], kvalue, vote);
+			long t2 = System.nanoTime();
+			System.out.println("libsvm " + (t1 - t0) / n + " ns, compiled "
+					+ (t2 - t1) / n + " ns, speedup " + (float) (t1 - t0) / (t2 - t1)
+					+ " (" + sink + ")");
+		}
+	}
+}
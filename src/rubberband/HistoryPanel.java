@@ -0,0 +1,92 @@
+package rubberband;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+import rubberband.math.DoubleWindow;
+
+/**
+ * History of every strain gauge, newest sample on the left. The plot is kept
+ * in an off-screen buffer used as a ring of columns: each new sample only
+ * clears and draws its own column, and the buffer is blitted in two pieces
+ * so the ring appears to scroll. The whole plot is redrawn only when the
+ * flat values change or more samples arrived than the panel is wide.
+ */
+public class HistoryPanel {
+
+	private final PGraphics pg;
+	private final int w, h;
+	private final int background;
+	private final float[] baseline;
+	private final double[] flatSeen;
+
+	private int head = 0;        // column of the newest sample
+	private long seen = -1;      // push count of the windows at the last update
+
+	public HistoryPanel(PApplet pApplet, int numSensors, int w, int h, int background) {
+		this.w = w;
+		this.h = h;
+		this.background = background;
+		pg = pApplet.createGraphics(w, h, PApplet.JAVA2D);
+		baseline = new float[numSensors];
+		flatSeen = new double[numSensors];
+		float move = (float)h*3/(4*(numSensors-1));
+		for (int i = 0; i < numSensors; i++)
+			baseline[i] = h/8 + move*i;
+	}
+
+	public void draw(PApplet pApplet, StrainGauge[] ss, double[] flatValue, int x, int y) {
+		DoubleWindow first = ss[0].getRawWindow();
+		if (first == null)
+			return;
+
+		long total = first.getPushCount();
+		boolean redraw = seen < 0 || total - seen >= w;
+		for (int i = 0; i < ss.length; i++) {
+			if (flatSeen[i] != flatValue[i]) {
+				flatSeen[i] = flatValue[i];
+				redraw = true;
+			}
+		}
+
+		if (redraw) {
+			pg.beginDraw();
+			pg.background(background);
+			head = 0;
+			for (int age = w - 1; age >= 0; age--)
+				drawColumn(ss, age);
+			pg.endDraw();
+		}
+		else if (total > seen) {
+			pg.beginDraw();
+			for (int age = (int) (total - seen) - 1; age >= 0; age--)
+				drawColumn(ss, age);
+			pg.endDraw();
+		}
+		seen = total;
+
+		pApplet.image(pg, x, y, w - head, h, head, 0, w, h);
+		if (head > 0)
+			pApplet.image(pg, x + w - head, y, head, h, 0, 0, head, h);
+	}
+
+	// advances the ring and draws the sample that is age samples old into it
+	private void drawColumn(StrainGauge[] ss, int age) {
+		head = (head - 1 + w) % w;
+
+		pg.noStroke();
+		pg.fill(background);
+		pg.rect(head, 0, 1, h);
+
+		for (int i = 0; i < ss.length; i++) {
+			DoubleWindow raw = ss[i].getRawWindow();
+			int newest = raw.size() - 1 - age;
+			if (newest < 1)
+				continue;
+			float y1 = baseline[i] - (int)(raw.get(newest)-flatSeen[i]);
+			float y0 = baseline[i] - (int)(raw.get(newest-1)-flatSeen[i]);
+			pg.stroke(Params.COLOR_POOL[i]);
+			pg.line(head, y0, head, y1);
+		}
+	}
+}
@@ -10,6 +10,12 @@ public class Params {
 	public static boolean DATAON = true;
 	public static int ONE_STEP = 20;
 	public static int STRIP_WIDTH = 50;
+	// spline parameter step between two columns of the strip mesh
+	public static float MESH_STEP = 0.01f;
+	public static float MESH_MAX_STEP = 0.25f;
+	// sagitta error allowed by adaptive tessellation, in the model units of the
+	// spline points (not projected to the screen), 0 for a fixed MESH_STEP
+	public static float MESH_TOLERANCE = 0.5f;
 	
 	
 	// For each strip
@@ -36,10 +42,26 @@ public class Params {
 	public static int COLOR_TOUCH = color(0, 0, 255, 255);
 	public static int COLOR_UNTOUCH = color(255, 0, 0, 255);
 	
+	// panel with the recognized shape, the classifier thread only runs while
+	// it is shown
+	public static boolean SHOW_CURRENT_SHAPE = false;
+	// shape classification runs at CLASSIFY_RATE Hz (0 classifies every sample),
+	// a new shape is shown once it has been predicted CLASSIFY_CONFIRMATIONS
+	// times in a row
+	public static double CLASSIFY_RATE = 10;
+	public static int CLASSIFY_CONFIRMATIONS = 3;
+	
+	// decoded shape icons kept in memory
+	public static int IMAGE_CACHE_SIZE = 16;
+	
 	public static boolean DEBUG = true;
 	
 	public static boolean DO_CLOSE_SHAPE = true;
 	
+	// sample the LEDs at equal arc length instead of equal spline parameter
+	public static boolean ARC_LENGTH_SAMPLING = true;
+	public static int ARC_LENGTH_SUBDIVISIONS = 8;
+	
 	// for number of sensor
 	public static int NUM_STRAIN_SENSORS = 16;
 	public static int NUM_NEOPIXELS = 16;
@@ -48,7 +70,45 @@ public class Params {
 	
 	public static int DATA_WINDOW_SIZE = 8;
 	
+	// default smoothing of each strain gauge, e.g. "median:3,oneeuro:1.0:0.01"
+	public static String FILTER_CHAIN = "boxcar:" + DATA_WINDOW_SIZE;
+	// nominal time between two sensor frames in seconds
+	public static double SAMPLE_PERIOD = 1.0 / 60;
+	
 	public static boolean DO_ARDUINO = true;
+	public static String SERIAL_PORT = "/dev/tty.usbmodem1411";
+	// recorded session to play back instead of reading the serial port, null for the strip
+	public static String REPLAY_FILE = null;
+	// playback rate of REPLAY_FILE, 1 is real time, 0 as fast as possible
+	public static double REPLAY_SPEED = 1;
+	
+	// threads running the pipelines of a StripRegistry, and how often (in
+	// microseconds) each of them drains the frames of its strip
+	public static int STRIP_WORKERS = Runtime.getRuntime().availableProcessors();
+	public static long STRIP_PUMP_PERIOD = 1000;
+	
+	// frames buffered between the serial reader thread and draw()
+	public static int SENSOR_RING_SIZE = 64;
+	// how frames that queue up between two draw() calls are handled
+	public static CoalescePolicy COALESCE_POLICY = CoalescePolicy.LATEST;
+	// largest value a strain gauge channel can report (10 bit ADC)
+	public static int ADC_MAX = 1023;
+	// raw value -> radius through tabulated transfer functions instead of
+	// evaluating the fits for every sample
+	public static boolean RADIUS_TABLES = true;
+	// table entries per ADC step
+	public static int RADIUS_TABLE_RESOLUTION = 4;
+	// online recalibration against reference shapes, weight left to a
+	// reference sample after the next one and weight of a new residual in
+	// the per gauge residual average
+	public static double RLS_FORGETTING = 0.995;
+	public static double RLS_RESIDUAL_SMOOTHING = 0.05;
+	
+	// session recording ('r' key), 0 seconds records until 'r' is pressed again
+	public static double RECORD_SECONDS = 60;
+	public static boolean RECORD_COMPRESS = false;
+	// frames buffered between the serial reader thread and the recorder
+	public static int RECORD_QUEUE_SIZE = 1024;
 	
 	public static int[] COLOR_POOL = new int[]{
 		color(0, 0, 166, 255), color(0, 113, 188, 255),
@@ -0,0 +1,215 @@
+package rubberband;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Plays a session written by SessionRecorder back into the frame ring. The
+ * file is memory-mapped and frames are decoded straight from the mapping;
+ * compressed sessions are inflated into memory once when opened.
+ *
+ * With speed 1 frames are published at the recorded rate, with speed N at
+ * N times that rate, and with speed 0 as fast as the consumer drains them.
+ * Paced playback drops frames on a full ring like the serial reader does,
+ * unpaced playback waits for room instead so that every frame arrives.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+	private final String file;
+	private final ByteBuffer data;
+	private final int numValues;
+	private final int frameSize;
+	private final long startMillis;
+	private final double speed;
+
+	private SensorFrameRing frames;
+	private SessionRecorder recorder;
+	private Thread player;
+	private volatile boolean running = false;
+	private long sequence = 0;
+
+	public ReplaySensorSource(String file, double speed) throws IOException {
+		this.file = file;
+		this.speed = speed;
+		data = isCompressed(file) ? inflate(file) : map(file);
+
+		if (data.remaining() < SessionRecorder.HEADER_SIZE || data.getInt() != SessionRecorder.MAGIC)
+			throw new IOException(file + " is not a recorded session");
+		short version = data.getShort();
+		if (version != SessionRecorder.VERSION)
+			throw new IOException(file + " has unsupported version " + version);
+		numValues = data.getShort();
+		startMillis = data.getLong();
+		frameSize = SessionRecorder.frameSize(numValues);
+	}
+
+	private static boolean isCompressed(String file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return in.read() == 0x1F && in.read() == 0x8B;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ByteBuffer map(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer inflate(String file) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+			return ByteBuffer.wrap(out.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	public void start(SensorFrameRing frames, SessionRecorder recorder) {
+		if (player != null)
+			return;
+		this.frames = frames;
+		this.recorder = recorder;
+		running = true;
+		player = new Thread(new Runnable() {
+			public void run() {
+				play();
+			}
+		}, "ReplaySensorSource");
+		player.setDaemon(true);
+		player.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (player != null) {
+			try {
+				player.join(500);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			player = null;
+		}
+	}
+
+	public boolean isRunning() { return running; }
+
+	private void play() {
+		ByteBuffer in = data.duplicate();
+		in.position(SessionRecorder.HEADER_SIZE);
+		boolean paced = speed > 0;
+		long begin = System.nanoTime();
+		long micros = 0; // session time of the current frame
+
+		while (running && in.remaining() >= frameSize) {
+			micros += in.getInt(in.position()) & 0xFFFFFFFFL;
+			if (paced && !waitUntil(begin + (long) (micros * 1000 / speed)))
+				break;
+
+			SensorFrame frame = frames.claim();
+			while (frame == null && !paced && running) {
+				Thread.yield();
+				frame = frames.claim();
+			}
+			if (frame == null) {
+				in.position(in.position() + frameSize);
+				frames.drop();
+				continue;
+			}
+			decode(in, frame);
+			frame.timestamp = System.nanoTime();
+			frame.sequence = sequence++;
+			if (recorder != null)
+				recorder.record(frame);
+			frames.publish();
+		}
+		running = false;
+	}
+
+	private boolean waitUntil(long deadline) {
+		long remaining;
+		while (running && (remaining = deadline - System.nanoTime()) > 0) {
+			if (remaining > 2000000) {
+				try {
+					Thread.sleep(remaining / 1000000 - 1);
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+			else
+				LockSupport.parkNanos(remaining);
+		}
+		return running;
+	}
+
+	private void decode(ByteBuffer in, SensorFrame frame) {
+		in.getInt();
+		int[] values = frame.values;
+		int n = Math.min(numValues, values.length);
+		for (int i = 0; i < n; i++)
+			values[i] = in.getShort() & 0xFFFF;
+		for (int i = n; i < numValues; i++)
+			in.getShort();
+		for (int i = n; i < values.length; i++)
+			values[i] = 0;
+		frame.yaw = in.getFloat();
+		frame.pitch = in.getFloat();
+		frame.roll = in.getFloat();
+	}
+
+	public void setCoalescePolicy(CoalescePolicy policy) {
+		// frames are published one at a time, the consumer applies the policy
+	}
+
+	public void write(byte[] data) {
+		// nothing to send the NeoPixel colors to
+	}
+
+	public long getCorruptFrames() { return 0; }
+
+	public long getSkippedBytes() { return 0; }
+
+	public long getSupersededFrames() { return 0; }
+
+	/**
+	 * Decodes frame index into out on the calling thread, independent of
+	 * playback. Returns the microseconds since the previous frame.
+	 */
+	public long frame(int index, SensorFrame out) {
+		ByteBuffer in = data.duplicate();
+		in.position(SessionRecorder.HEADER_SIZE + index * frameSize);
+		long micros = in.getInt(in.position()) & 0xFFFFFFFFL;
+		decode(in, out);
+		return micros;
+	}
+
+	public String getFile() { return file; }
+
+	/** Number of values in each recorded frame. */
+	public int numValues() { return numValues; }
+
+	/** Frames in the session. */
+	public int numFrames() { return (data.limit() - SessionRecorder.HEADER_SIZE) / frameSize; }
+
+	/** Wall clock time the session was recorded, ms since epoch. */
+	public long getStartMillis() { return startMillis; }
+}
@@ -1,6 +1,5 @@
 package rubberband;
 
-import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -10,53 +9,45 @@ import java.util.*;
 
 import libsvm.svm;
 import libsvm.svm_model;
-import math.geom2d.AffineTransform2D;
 
 import processing.core.PApplet;
 import processing.core.PImage;
 
-import rubberband.math.LeastSquareFit;
-import rubberband.math.Spline;
+import rubberband.math.CurvatureEngine;
+import rubberband.math.DoubleWindow;
+import rubberband.math.KinematicChain;
 
 public class RubberbandTest extends PApplet {
 
 	private static final long serialVersionUID = 1L;
 	private static final int HEIGHT = Params.WINDOW_HEIGHT;
 	private static final int WIDTH = Params.WINDOW_WIDTH;
+	private static final int BACKGROUND = 200;
 
-	ArrayList<Float> spline_x = new ArrayList<Float>();
-	ArrayList<Float> spline_y = new ArrayList<Float>();
+	// calibration, gauges and shape of the strip
+	ShapeReconstructionEngine engine;
+	StrainGauge[] ss;
 
-	StrainGauge[] ss = new StrainGauge[Params.NUM_STRAIN_SENSORS];
-
-	LeastSquareFit LSF_P;
-	LeastSquareFit LSF_N;
-	LeastSquareFit invLSF_P;
-	LeastSquareFit invLSF_N;
 	ArduinoIO arduinoDevices;
 
-	private double[] rawStrainVal, rawRadiusVal;
-
-	private float[] resample_x, resample_y, resample_c, resample_r;
-	private float[] resample_cs, resample_c2, resample_dx, resample_dy;
+	// rendered strip surface
+	private StripMesh mesh = new StripMesh(Params.NUM_NEOPIXELS, Params.MESH_STEP,
+			Params.MESH_MAX_STEP, Params.MESH_TOLERANCE);
 
-	// offset value of each strain gauge
-	private double[] flatValue = new double[Params.NUM_STRAIN_SENSORS];
+	// offset value of each strain gauge, owned by the engine
+	private double[] flatValue;
 
 	// touch state of every touch sensor
 	private boolean[] touchState = new boolean[Params.NUM_TOUCH_SENSORS];
 	private int[] touchColor = new int[Params.NUM_TOUCH_SENSORS];
 
 	// for debug
+	private HistoryPanel historyPanel = null;
 	private int sensorInterest = 0;
 	private float[] fixRawData = new float[Params.NUM_STRAIN_SENSORS];
 
 	// for record data
 	private String curState = "ReadyToRecord";
-	private int recordCount = 0 ;
-	private FileWriter outFile = null;
-	private BufferedWriter writer = null;
-	private BufferedReader reader = null;
 
 	// for display control
 	private int dx = 0;
@@ -69,9 +60,11 @@ public class RubberbandTest extends PApplet {
 	// for shape recognition
 	private int curShape = -1;
 	private PImage curShapeImg = null;
+	private ShapeImageCache shapeImages = null;
 
 	private svm_predict svmp = null;
 	private svm_model model = null;
+	private ShapeRecognizer recognizer = null;
 	
 	private boolean toLoadImg = true;
 	private int targetShape = 4;
@@ -88,25 +81,29 @@ public class RubberbandTest extends PApplet {
 		smooth();
 		fill(0);
 
-		for (int i = 0; i < ss.length; i++)
-			ss[i] = new StrainGauge(this, Params.GAUGE_LENGTH);
+		// reads the calibration of each strain gauge
+		engine = new ShapeReconstructionEngine(Params.STRIP);
+		ss = engine.getGauges();
+		flatValue = engine.getFlatValue();
 
 		if (Params.DO_ARDUINO)
 			init_Arduino_Sensors();
-		init_StrainGague_Mapping();
-
-		for (int i = 0; i < flatValue.length; i++)
-			flatValue[i] = 0;
-
-		// To calibrate each strain
-		calibrationStrainGauge();
 
 		svmp = new svm_predict(this);
 
+		shapeImages = new ShapeImageCache(this, Params.IMAGE_CACHE_SIZE);
+		shapeImages.preload();
+
 		try 
 		{
 			model = svm.svm_load_model("train.libsvm.model");
 		} catch (IOException e) { e.printStackTrace(); }
+
+		if (model != null && Params.SHOW_CURRENT_SHAPE) {
+			recognizer = new ShapeRecognizer(model, Params.NUM_STRAIN_SENSORS,
+					Params.CLASSIFY_RATE, Params.CLASSIFY_CONFIRMATIONS);
+			recognizer.start();
+		}
 	}
 
 	public void update() {
@@ -114,10 +111,18 @@ public class RubberbandTest extends PApplet {
 			arduinoDevices.update();
 	}
 
+	public void stop() {
+		if (arduinoDevices != null)
+			arduinoDevices.stop();
+		if (recognizer != null)
+			recognizer.stop();
+		super.stop();
+	}
+
 	public void draw() {
 		update();
 
-		background(200);
+		background(BACKGROUND);
 
 		ellipseMode(CENTER);
 
@@ -134,29 +139,15 @@ public class RubberbandTest extends PApplet {
 		}
 		
 		drawAllData(3*WIDTH/4, 0, WIDTH/4, HEIGHT/4);
-//		drawCurrentShape(WIDTH-200, HEIGHT-200, 190, 190);
+		if (Params.SHOW_CURRENT_SHAPE)
+			drawCurrentShape(WIDTH-200, HEIGHT-200, 190, 190);
 		drawTargetImage(200, 200, 500);
 
 		// ////////////////////////////////////////////////////////////////////////////////
-		// Write Data to File
+		// Recording is written by the SessionRecorder thread
 		// ////////////////////////////////////////////////////////////////////////////////
-		if (outFile != null){
-			if (recordCount < 100){
-				writeRawDataToFile();
-				recordCount++;
-			}
-			else{
-				recordCount = 0;
-				curState = "ReadyToRecord";
-				try {
-					writer.flush();
-					outFile.close();
-					writer.close();
-				} catch (IOException e) { e.printStackTrace(); }
-				outFile = null;
-				writer = null;
-			}
-		}
+		if (arduinoDevices != null)
+			curState = arduinoDevices.getRecorder().isRecording() ? "Recording" : "ReadyToRecord";
 		// Translation
 		translate(WIDTH/4, HEIGHT*3/4);
 		translate(0, 0, -Params.ONE_STEP*3);
@@ -170,63 +161,15 @@ public class RubberbandTest extends PApplet {
 //		rotateY(radians(-90));
 		
 		// ////////////////////////////////////////////////////////////////////////////////
-		// Simply Draw using openGL functions
+		// Draw each gauge at the pose cached by the kinematic chain
 		// ////////////////////////////////////////////////////////////////////////////////
-		pushMatrix();
-
-
-
+		KinematicChain chain = engine.getChain();
 		for (int i = 0; i < ss.length; i++) {
-			ss[i].draw();
-
-			Point2D.Float nextStart = ss[i].nextStart();
-			float nextAngle = ss[i].nextAngle();
-			translate(nextStart.x, nextStart.y);
-			rotate(nextAngle);
-		}
-
-		popMatrix();
-
-		// ////////////////////////////////////////////////////////////////////////////////
-		// As previous step, but here, manually compute sample locations w/o
-		// openGL functions
-		// ////////////////////////////////////////////////////////////////////////////////
-		spline_x.clear();
-		spline_y.clear();
-
-		AffineTransform2D affine = AffineTransform2D.createTranslation(0, 0);
-		//affine = affine.concatenate(AffineTransform2D.createTranslation(200, 200));
-
-		for (int i = 0; i < ss.length; i++) {
-
-			math.geom2d.Point2D vec;
-			Point2D.Float[] pts = ss[i].getPoints();
-			for (int j = 0; j < pts.length; j++) {
-
-				if (j == 1) {
-					vec = new math.geom2d.Point2D(pts[j].x, pts[j].y);
-					vec = vec.transform(affine);
-
-					spline_x.add(new Float(vec.x()));
-					spline_y.add(new Float(vec.y()));
-				}
-			}
-
-			Point2D.Float nextStart = ss[i].nextStart();
-			float nextAngle = ss[i].nextAngle();
-
-			if (i == ss.length - 1) {
-				vec = new math.geom2d.Point2D(nextStart.x, nextStart.y);
-				vec = vec.transform(affine);
-				spline_x.add(new Float(vec.x()));
-				spline_y.add(new Float(vec.y()));
-			}
-
-			affine = affine.concatenate(AffineTransform2D.createTranslation(
-					nextStart.x, nextStart.y));
-			affine = affine.concatenate(AffineTransform2D
-					.createRotation(nextAngle));
-
+			pushMatrix();
+			translate(chain.getPoseX(i), chain.getPoseY(i));
+			rotate(chain.getPoseAngle(i));
+			drawGauge(ss[i]);
+			popMatrix();
 		}
 
 		// ////////////////////////////////////////////////////////////////////////////////
@@ -234,90 +177,8 @@ public class RubberbandTest extends PApplet {
 		// ////////////////////////////////////////////////////////////////////////////////
 		noFill();
 
-		int s = spline_x.size();
-		float[] mx = new float[s];
-		float[] my = new float[s];
-
-		for (int i = 0; i < s; i++) {
-			mx[i] = ((Float) spline_x.get(i)).floatValue();
-			my[i] = ((Float) spline_y.get(i)).floatValue();
-		}
-
-		Spline xs, ys;
-		xs = new Spline(mx);
-		ys = new Spline(my);
-
-		int loose_Sample = Params.NUM_NEOPIXELS; // 20
-		int dense_Sample = loose_Sample * 5;
-
-		if (resample_x == null) {
-			resample_x = new float[loose_Sample];
-			resample_y = new float[loose_Sample];
-			resample_c = new float[loose_Sample]; // Curvatures
-			resample_r = new float[loose_Sample]; // Radius
-
-			resample_cs = new float[loose_Sample]; // Signed Curvatures
-			resample_c2 = new float[loose_Sample]; // Re-map to [0-255]
-
-//			resample_dx = new float[loose_Sample]; // store first
-//			// derivation x
-//			resample_dy = new float[loose_Sample]; // store first
-//			// derivation y
-		}
-		float loose_step = (float) (mx.length - 1) / (loose_Sample - 1);
-		float dense_step = (float) (mx.length - 1) / (dense_Sample - 1);
-
-		float dense_x1, dense_x2;
-		float dense_y1, dense_y2;
-		float dx, dx2, dy, dy2;
-		float ddx, ddy;
-		for (int t = 0; t < loose_Sample; t++) {
-
-			resample_x[t] = xs.calc(t * loose_step);
-			resample_y[t] = ys.calc(t * loose_step);
-
-			dense_x1 = xs.calc(t * loose_step + dense_step);
-			dense_x2 = xs.calc(t * loose_step + dense_step * 2);
-			dense_y1 = ys.calc(t * loose_step + dense_step);
-			dense_y2 = ys.calc(t * loose_step + dense_step * 2);
-
-			dx = dense_x1 - resample_x[t];
-			dx2 = dense_x2 - dense_x1;
-			dy = dense_y1 - resample_y[t];
-			dy2 = dense_y2 - dense_y1;
-
-			ddx = dx2 - dx;
-			ddy = dy2 - dy;
-
-			// resample_dx[t] = dx;
-			// resample_dy[t] = dy;
-
-			// compute signed curvatures
-			resample_cs[t] = (float) ((dx * ddy - dy * ddx) / Math.pow(dx * dx
-					+ dy * dy, 1.5));
-		}
-
-		// store sign of the curvatures
-		for (int i = 0; i < resample_c.length; i++) {
-			resample_c[i] = Math.abs(resample_cs[i]);
-			resample_r[i] = 1 / resample_c[i];
-			if (resample_cs[i] > 0)
-				resample_cs[i] = 1;
-			else
-				resample_cs[i] = -1;
-		}
-
-		// re-map curvature to 0-255
-		float min = Float.MAX_VALUE;
-		float max = Float.MIN_NORMAL;
-		for (int i = 0; i < resample_c.length; i++) {
-			if (resample_c[i] > max)
-				max = resample_c[i];
-			if (resample_c[i] < min)
-				min = resample_c[i];
-		}
-		for (int i = 0; i < resample_c.length; i++)
-			resample_c2[i] = 255 * (resample_c[i] - min) / (max - min);
+		engine.reconstruct();
+		CurvatureEngine curvatures = engine.getCurvatures();
 
 		// ////////////////////////////////////////////////////////////////////////////////
 		// draw on-edge circle to justify the computing
@@ -339,32 +200,14 @@ public class RubberbandTest extends PApplet {
 		// ////////////////////////////////////////////////////////////////////////////////
 		// draw Spline
 		// ////////////////////////////////////////////////////////////////////////////////
-		drawSpline(resample_x, resample_y);
+		drawSpline(curvatures.x, curvatures.y);
 
 		// ////////////////////////////////////////////////////////////////////////////////
 		// send to NeoPixels
 		// ////////////////////////////////////////////////////////////////////////////////
 		if (Params.DO_ARDUINO) {
-
-			int bufferSize = Params.NUM_NEOPIXELS * 3 + 2;
-			ByteBuffer bbuf = ByteBuffer.allocate(bufferSize);
-			// set identifier
-			bbuf.put((byte) 0xFF);
-			bbuf.put((byte) 0xFE);
-
-			for (int i = 0; i < Params.NUM_NEOPIXELS; i++) {
-				if (resample_cs[i] > 0) {
-					bbuf.put((byte) 0);
-					bbuf.put((byte) resample_c2[i]);
-					bbuf.put((byte) 0);
-				} else {
-					bbuf.put((byte) 0);
-					bbuf.put((byte) 0);
-					bbuf.put((byte) resample_c2[i]);
-				}
-			}
-
-//			arduinoDevices.setNeoPixels(bbuf.array());
+			// packet encoded by the engine from the signed curvatures
+//			arduinoDevices.setNeoPixels(engine.getLedBytes());
 		}
 	}
 
@@ -374,8 +217,7 @@ public class RubberbandTest extends PApplet {
 	public void keyPressed() {
 		switch(key){
 		case ' ':
-			for (int i = 0; i < ss.length; i++)
-				flatValue[i] = ss[i].getCurrentValue();
+			engine.setFlat();
 			break;
 		case '9':
 			sensorInterest--;
@@ -386,15 +228,18 @@ public class RubberbandTest extends PApplet {
 			sensorInterest++;
 			if (sensorInterest >= Params.NUM_STRAIN_SENSORS)
 				sensorInterest = 0;
+			break;
 		case 'r':
-			curState = "Recording";
-			recordCount = 0;
-			String timeStamp = new SimpleDateFormat("MMdd_HHmmss").format(Calendar.getInstance().getTime());
-			try {
-				outFile = new FileWriter("Record_" + timeStamp + ".txt");
-				writer = new BufferedWriter(outFile);
-			} catch (IOException e){
-				e.printStackTrace();
+			if (arduinoDevices == null)
+				break;
+			SessionRecorder recorder = arduinoDevices.getRecorder();
+			if (recorder.isRecording()) {
+				recorder.stop();
+			}
+			else {
+				String timeStamp = new SimpleDateFormat("MMdd_HHmmss").format(Calendar.getInstance().getTime());
+				recorder.start("Record_" + timeStamp + (Params.RECORD_COMPRESS ? ".rbs.gz" : ".rbs"),
+						Params.RECORD_SECONDS, Params.RECORD_COMPRESS);
 			}
 			break;
 		case 'z':
@@ -437,42 +282,15 @@ public class RubberbandTest extends PApplet {
 
 	public void strainGaugeEvent(double[] rVal) {
 		// System.out.println(rVal[3]);
+		engine.update(rVal);
 
-		if (rawStrainVal == null)
-			rawStrainVal = new double[rVal.length];
-		if (rawRadiusVal == null)
-			rawRadiusVal = new double[rVal.length];
-
-		if (rawStrainVal.length != rVal.length)
-			rawStrainVal = new double[rVal.length];
-
-//		for (int i = 0; i < rVal.length; i++)
-//			rawStrainVal[i] = rVal[i];
+		if (recognizer != null)
+			recognizer.submit(engine.getRadii());
+	}
 
-		for	(int i = 0; i < rVal.length; i++){
-			ss[i].update(rVal[i]);
-			rawStrainVal[i] = ss[i].getCurrentValue();
-			rawRadiusVal[i] = getCurveRadius(i, ss[i].getCurrentValue());
-			ss[i].setCurvatureRadius((float) rawRadiusVal[i]);
-		}
-		// FIXME add rational radius on gap region
-		
-//		// set by harmonic mean
-//		float CHEAT = 5.0f;
-//		for (int i = 0; i < rVal.length-1; i++){
-//			float r = (float) ((1.0f/rawRadiusVal[i] + 1.0f/rawRadiusVal[i+1])/2);
-//			ss[i].setNextRadius(CHEAT * 1.0f/r);
-//		}
-//		ss[rVal.length-1].setNextRadius(CHEAT * (float)rawRadiusVal[rVal.length-1]);
-		
-		// set by average in response curve
-		float magicNumber = Params.STRIP.gap_radius_fix;
-		for (int i = 0; i < rVal.length-1; i++){
-			double v1 = invLSF_Evaluate(1.0f/rawRadiusVal[i]);
-			double v2 = invLSF_Evaluate(1.0f/rawRadiusVal[i+1]);
-			ss[i].setNextRadius( (float)(magicNumber * getCurveRadius(-1, (v1+v2)/2)));
-		}
-		ss[rVal.length-1].setNextRadius(magicNumber * (float)rawRadiusVal[rVal.length-1]);
+	// a superseded sample only feeds the filter of each gauge
+	public void strainGaugeSample(double[] rVal) {
+		engine.sample(rVal);
 	}
 
 	public void touchSensorEvent(double[] rVal){
@@ -499,138 +317,30 @@ public class RubberbandTest extends PApplet {
 				Params.NUM_STRAIN_SENSORS, Params.NUM_NEOPIXELS, Params.NUM_TOUCH_SENSORS);
 	}
 
-	public void init_StrainGague_Mapping() {
-		int order = 2;
-		double zero = 0;
-		// XXX Add test data if possible
-		// for LSF_Positive	
-		double[] input = new double[] { 673.290, 684.805, 710.265, 727.550, 
-				742.515, 814.545, 844.690 };
-		zero = input[0];
-		for (int i = 0; i < input.length; i++)
-			input[i] = input[i] - zero;
-		double[] response = new double[] { 0, 1.0/56.32, 1.0/27.66, 1.0/18.11, 1.0/13.33, 
-				1.0/10.46, 1.0/8.55};
-		for	(int i = 0; i < response.length; i++)
-			response[i] = response[i] / Params.DISPLAY_RATIO;
-		LSF_P = new LeastSquareFit(input, response, order);
-		invLSF_P = new LeastSquareFit(response, input, order);
-
-		// for LSF_Negative
-		input = new double[] { 705.550, 680.090, 642.130, 616.175, 
-				586.685, 507.360, 475.840 };
-		zero = input[0];
-		for (int i = 0; i < input.length; i++)
-			input[i] = input[i] - zero;
-		response = new double[] { 0, -1.0/56.32, -1.0/27.66, -1.0/18.11, -1.0/13.33, 
-				-1.0/10.46, -1.0/8.55 };
-		for	(int i = 0; i < response.length; i++)
-			response[i] = response[i] / Params.DISPLAY_RATIO;
-		LSF_N = new LeastSquareFit(input, response, order);
-		invLSF_N = new LeastSquareFit(response, input, order);
-	}
-
-	private double invLSF_Evaluate(double d){
-		if (d > 0)
-			return invLSF_P.evaluate(d);
-		else
-			return invLSF_N.evaluate(d);
-	}
-
-	private void calibrationStrainGauge(){
-
-		// XXX appropriate weight to (0, 0)
-		int zeroWeight = 200;
-		int numDataFromFile = 0;
-		int numData = 0;
-		double[] calCurvature = null;
-
-		// ////////////////////////////////////////////////////////////////////////////////
-		// reader header and curvature information from file
-		// ////////////////////////////////////////////////////////////////////////////////	
-		try {
-			reader = new BufferedReader(new FileReader(Params.STRIP.calibration_data_set));
-			try {
-				String line;
-				line = reader.readLine();
-				if (line != null){
-					String[] inStrArr = line.split(" ");
-					numDataFromFile = inStrArr.length;
-					numData = zeroWeight + numDataFromFile;
-					calCurvature = new double[numDataFromFile];
-					for (int i = 0; i < numDataFromFile; i++)
-						calCurvature[i] = 1/Double.parseDouble(inStrArr[i]);
-				}
-				else{
-					System.out.println("Empty file!!!");
-					return;
-				}
-			} catch (IOException e) { e.printStackTrace(); }
-		} catch (FileNotFoundException e) { e.printStackTrace(); }
-
-		// ////////////////////////////////////////////////////////////////////////////////
-		// read remaining data from file
-		// ////////////////////////////////////////////////////////////////////////////////
-		double[][] calDataFromTest = new double[Params.NUM_STRAIN_SENSORS][numData];
-
-		for (int i = 0; i < zeroWeight; i++){
-			for (int j = 0; j < Params.NUM_STRAIN_SENSORS; j++)
-				calDataFromTest[j][i] = 0;
-		}
-
-		try {
-			String line;
-			int count = zeroWeight;
-			while ((line = reader.readLine()) != null){
-				String[] inStrArr = line.split(" ");
-				for (int i = 0; i < Params.NUM_STRAIN_SENSORS; i++)
-					calDataFromTest[i][count] = Double.parseDouble(inStrArr[i]);
-				count++;
-			}
-		} catch (IOException e) { e.printStackTrace(); }
-		try { reader.close(); } catch (IOException e) { e.printStackTrace(); }
+	// ////////////////////////////////////////////////////////////////////////////////
+	// function to draw
+	// ////////////////////////////////////////////////////////////////////////////////
 
-		// ////////////////////////////////////////////////////////////////////////////////
-		// Baseline data from mapping curve
-		// ////////////////////////////////////////////////////////////////////////////////	
-		double[] rawDataForCalCurvature = new double[numData];
-		for (int i = 0; i < zeroWeight; i++)
-			rawDataForCalCurvature[i] = 0;
-		for (int i = zeroWeight; i < numData; i++){
-			double curvature = calCurvature[i-zeroWeight];
-			if (curvature >= 0)
-				rawDataForCalCurvature[i] = this.invLSF_P.evaluate(curvature);
-			else
-				rawDataForCalCurvature[i] = this.invLSF_N.evaluate(curvature);
-		}
+	// drawn in the gauge's own frame, the caller sets up the pose
+	void drawGauge(StrainGauge g) {
+		int last = g.numPoints() - 1;
+		fill(255, 0, 0);
+		strokeWeight(2);
+		stroke(0);
+		line(g.getPointX(0), g.getPointY(1), 0, g.getPointX(0), g.getPointY(1), Params.STRIP_WIDTH);
+		line(g.getPointX(last), g.getPointY(last), 0,
+				g.getPointX(last), g.getPointY(last), Params.STRIP_WIDTH);
+		strokeWeight(1);
 
-		// ////////////////////////////////////////////////////////////////////////////////
-		// set calibrate LSF regression to each strain gauge
-		// ////////////////////////////////////////////////////////////////////////////////
-		int[] gaugeInOrder1 = Params.STRIP.calibration_in_order_1;
-		int idx = 0;
-		for (int i = 0; i < Params.NUM_STRAIN_SENSORS; i++){
-			double[] input = calDataFromTest[i];
-			LeastSquareFit lsf;
-			
-			if ( idx < gaugeInOrder1.length && i == gaugeInOrder1[idx]){
-				lsf = new LeastSquareFit(input, rawDataForCalCurvature, 1);
-				idx++;
-			}
-			else
-				lsf = new LeastSquareFit(input, rawDataForCalCurvature, 2);
-			
-			ss[i].mapLSF = lsf;
+		if (Params.DEBUG) {
+			float radius = g.getRadius();
+			stroke(0, 0, 255);
+			noFill();
+			if (radius < 200 && radius > -200)
+				ellipse(0, radius, radius * 2, radius * 2);
 		}
 	}
 
-
-
-
-	// ////////////////////////////////////////////////////////////////////////////////
-	// function to draw
-	// ////////////////////////////////////////////////////////////////////////////////
-
 	void drawSpline(ArrayList x, ArrayList y) {
 		int s = x.size();
 		float[] mx = new float[s];
@@ -648,28 +358,9 @@ public class RubberbandTest extends PApplet {
 		if (x.length < 1)
 			return;
 
-		Spline xs, ys;
-		xs = new Spline(x);
-		ys = new Spline(y);
-
 		noStroke();
-		float space = floor((float)(x.length-1)/(Params.NUM_TOUCH_SENSORS-1) * 100) ;
-		space = space / 100;
-
-		for	(float t = 0.0f; t <= space * (Params.NUM_TOUCH_SENSORS-1); t += 0.01f){
-			float inter = t/space;
-			int c = lerpColor(touchColor[floor(inter)], touchColor[ceil(inter)], inter-floor(inter));
-			fill(c);
-
-			beginShape();
-
-			vertex(xs.calc(t), ys.calc(t), 0);
-			vertex(xs.calc(t + 0.01f), ys.calc(t + 0.01f), 0);
-			vertex(xs.calc(t + 0.01f), ys.calc(t + 0.01f), Params.STRIP_WIDTH);
-			vertex(xs.calc(t), ys.calc(t), Params.STRIP_WIDTH);
-
-			endShape();
-		}
+		mesh.update(x, y, touchColor);
+		mesh.draw(this, Params.STRIP_WIDTH);
 
 		stroke(255, 0, 0);
 
@@ -684,7 +375,7 @@ public class RubberbandTest extends PApplet {
 		int[] curve = new int[LEN];
 		if (flatValue != null){
 			for (int i = 0; i < LEN; i++){
-				curve[i] = (int) getCurveRadius(-1, i-LEN/2);
+				curve[i] = (int) engine.getCurveRadius(-1, i-LEN/2);
 			}
 			stroke(200);
 			for (int i = 1; i < LEN; i++)
@@ -701,11 +392,13 @@ public class RubberbandTest extends PApplet {
 	private void drawInform(){
 		for (int i = 0; i < WIDTH-1; i++){
 			stroke(Params.COLOR_TOUCH);
-			line(WIDTH-i, 1.0f/ss[sensorInterest].radiusWindow.get(i)*2500+HEIGHT/2,
-					WIDTH-(i+1), 1.0f/ss[sensorInterest].radiusWindow.get(i+1)*2500+HEIGHT/2);
+			DoubleWindow radiusWindow = ss[sensorInterest].getRadiusWindow();
+			DoubleWindow rawWindow = ss[sensorInterest].getRawWindow();
+			line(WIDTH-i, (float) (1.0f/radiusWindow.get(i)*2500+HEIGHT/2),
+					WIDTH-(i+1), (float) (1.0f/radiusWindow.get(i+1)*2500+HEIGHT/2));
 			stroke(Params.COLOR_UNTOUCH);
-			line(WIDTH-i, ss[sensorInterest].rawWindow.get(i)-HEIGHT/2, 
-					WIDTH-(i+1), ss[sensorInterest].rawWindow.get(i+1)-HEIGHT/2);
+			line(WIDTH-i, (float) (rawWindow.get(i)-HEIGHT/2), 
+					WIDTH-(i+1), (float) (rawWindow.get(i+1)-HEIGHT/2));
 		}
 
 		drawMappedFunction(sensorInterest);
@@ -732,14 +425,9 @@ public class RubberbandTest extends PApplet {
 	}
 
 	private void drawAllData(int x, int y, int w, int h){
-		float move = (float)h*3/(4*(Params.NUM_STRAIN_SENSORS-1));
-		for (int i = 0; i < Params.NUM_STRAIN_SENSORS; i++){
-			stroke(Params.COLOR_POOL[i]);
-			for (int j = 1; j < w; j++){
-				line(x + j, y + h/8 + move*i - (int)(ss[i].rawWindow.get(WIDTH-j)-flatValue[i]), 
-						x + (j+1), y + h/8 + move*i - (int)(ss[i].rawWindow.get(WIDTH-j-1)-flatValue[i]));
-			}
-		}
+		if (historyPanel == null)
+			historyPanel = new HistoryPanel(this, Params.NUM_STRAIN_SENSORS, w, h, BACKGROUND);
+		historyPanel.draw(this, ss, flatValue, x, y);
 	}
 
 	private void drawCurrentShape(int x, int y, int w, int h){
@@ -747,39 +435,11 @@ public class RubberbandTest extends PApplet {
 		stroke(0);
 		fill(255);
 		rect(x, y, w, h);
-		int tmpShape = -1;
-		try {
-			tmpShape = svm_predict.classifyJarLib(model, rawRadiusVal);
-		} catch (IOException e1) { e1.printStackTrace(); }
+		int tmpShape = recognizer != null ? recognizer.getShape() : -1;
 
-		if (tmpShape != curShape){
+		if (tmpShape != curShape || curShapeImg == null){
 			curShape = tmpShape;
-			switch (curShape){
-			case 5:
-				curShapeImg = loadImage("circle.png");
-				break;
-			case 6:
-				curShapeImg = loadImage("square.png");
-				break;
-			case 7:
-				curShapeImg = loadImage("triangle.png");
-				break;
-			case 8:
-				curShapeImg = loadImage("v_shape.png");
-				break;
-			case 9:
-				curShapeImg = loadImage("ok.png");
-				break;
-			case 10:
-				curShapeImg = loadImage("cap.png");
-				break;
-			case 11:
-				curShapeImg = loadImage("w_shape.png");
-				break;
-			default:
-				curShapeImg = loadImage("no.png");
-				break;
-			}
+			curShapeImg = shapeImages.get(curShape);
 		}
 		image(curShapeImg, x, y, w, h);
 		strokeWeight(1);
@@ -789,83 +449,11 @@ public class RubberbandTest extends PApplet {
 		pushMatrix();
 		translate(0, 0, -100);
 		
-		if (toLoadImg){
-			switch(targetShape){
-			case 5:
-				baseLine = loadImage("circle.png");
-				break;
-			case 6:
-				baseLine = loadImage("square.png");
-				break;
-			case 7:
-				baseLine = loadImage("triangle.png");
-				break;
-			case 8:
-				baseLine = loadImage("v_shape.png");
-				break;
-			case 9:
-				baseLine = loadImage("ok.png");
-				break;
-			case 10:
-				baseLine = loadImage("cap.png");
-				break;
-			case 11:
-				baseLine = loadImage("w_shape.png");
-				break;
-			default:
-				baseLine = loadImage("no.png");
-				break;
-			}
-		}
+		if (toLoadImg)
+			baseLine = shapeImages.get(targetShape);
 		image(baseLine, x, y, r, r);
 		toLoadImg = false;
 		
 		popMatrix();
 	}
-	
-	// ////////////////////////////////////////////////////////////////////////////////
-	// Other function
-	// ////////////////////////////////////////////////////////////////////////////////
-	
-	private void writeRawDataToFile(){
-		if (outFile != null){
-			try {
-				for (int i = 0; i < ss.length; i++){
-					writer.write( Double.toString( ss[i].getCurrentValue()) );
-					writer.write( " " );
-				}
-				writer.write( "\n" );
-			} catch (IOException e) { e.printStackTrace(); }
-		} else { System.out.println("output file not create"); }
-	}
-
-	public double getCurveRadius(int idx, double strainValue) {
-		double mappedValue;
-		if (idx == -1){
-			mappedValue = strainValue;
-		}
-		else{
-			mappedValue = strainValue - flatValue[idx];
-			mappedValue = ss[idx].mapLSF.evaluate(mappedValue);
-		}
-		// XXX
-		int threshold = 50;
-		double base = 1.05;
-		if (mappedValue >= 0){
-			double r;
-			if ( mappedValue < threshold )
-				r = 1.0/LSF_P.evaluate( mappedValue ) * Math.pow(base, threshold-mappedValue);
-			else
-				r = 1.0/LSF_P.evaluate( mappedValue );
-			return r;
-		}
-		else{
-			double r;
-			if ( mappedValue > -threshold )
-				r = 1.0/LSF_N.evaluate( mappedValue ) * Math.pow(base, threshold+mappedValue);
-			else
-				r = 1.0/LSF_N.evaluate( mappedValue );
-			return r;
-		}
-	}
 }
@@ -0,0 +1,27 @@
+package rubberband;
+
+/**
+ * One complete sensor packet as received from the Arduino. Values are kept in
+ * the order they arrive on the wire (touch / strain / dummy interleaved), the
+ * mapping to gauges is done by the consumer.
+ */
+public class SensorFrame {
+
+	public final int[] values;
+	public float yaw, pitch, roll;
+	public long timestamp; // System.nanoTime() when the frame was decoded
+	public long sequence;
+
+	public SensorFrame(int numValues) {
+		values = new int[numValues];
+	}
+
+	public void copyFrom(SensorFrame other) {
+		System.arraycopy(other.values, 0, values, 0, values.length);
+		yaw = other.yaw;
+		pitch = other.pitch;
+		roll = other.roll;
+		timestamp = other.timestamp;
+		sequence = other.sequence;
+	}
+}
@@ -0,0 +1,170 @@
+package rubberband;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the Arduino sensor packet from a byte stream:
+ *
+ *   0xFF 0xFE | numValues x uint16 (big endian) | yaw, pitch, roll float32 (little endian)
+ *
+ * Bytes are appended with feed() and complete frames are taken out with
+ * next(). A frame is only parsed once all of its bytes are buffered, so a
+ * half-received packet is never decoded. The packet has no checksum, a frame
+ * is rejected as corrupt when a strain value is out of ADC range, an IMU
+ * angle is not a finite angle, or the bytes after it do not start a new header.
+ */
+public class SensorFrameDecoder {
+
+	public static final int HEADER_0 = 0xFF;
+	public static final int HEADER_1 = 0xFE;
+	public static final int HEADER_SIZE = 2;
+	public static final int IMU_SIZE = 3 * 4;
+
+	private final int numValues;
+	private final int frameSize;
+	private final ByteBuffer buffer; // kept in write mode between calls
+
+	private long decoded = 0;
+	private long corrupt = 0;
+	private long skippedBytes = 0;
+	private long superseded = 0;
+
+	public SensorFrameDecoder(int numValues) {
+		this(numValues, 8);
+	}
+
+	public SensorFrameDecoder(int numValues, int framesBuffered) {
+		this.numValues = numValues;
+		this.frameSize = HEADER_SIZE + 2 * numValues + IMU_SIZE;
+		buffer = ByteBuffer.allocate(frameSize * Math.max(2, framesBuffered));
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/** Number of bytes feed() can accept right now. */
+	public int freeSpace() {
+		return buffer.remaining();
+	}
+
+	/** Size of a read buffer that can always be fed after next() returned false. */
+	public int maxFeedSize() {
+		return buffer.capacity() - frameSize;
+	}
+
+	public void feed(byte[] src, int offset, int length) {
+		buffer.put(src, offset, length);
+	}
+
+	/**
+	 * Decodes the oldest complete frame into out. Returns false when no
+	 * complete frame is buffered; the partial tail is kept for the next feed.
+	 */
+	public boolean next(SensorFrame out) {
+		buffer.flip();
+		int p = scan();
+		if (p >= 0)
+			parse(p, out);
+		finish();
+		return p >= 0;
+	}
+
+	/**
+	 * Decodes only the newest complete frame into out. Older complete frames
+	 * are validated and skipped without being parsed.
+	 */
+	public boolean latest(SensorFrame out) {
+		buffer.flip();
+		int last = -1;
+		int p;
+		while ((p = scan()) >= 0) {
+			if (last >= 0)
+				superseded++;
+			last = p;
+		}
+		if (last >= 0)
+			parse(last, out);
+		finish();
+		return last >= 0;
+	}
+
+	// finds the next valid complete frame in the flipped buffer and steps over it
+	private int scan() {
+		while (buffer.remaining() >= HEADER_SIZE) {
+			int p = buffer.position();
+			if ((buffer.get(p) & 0xFF) != HEADER_0 || (buffer.get(p + 1) & 0xFF) != HEADER_1) {
+				buffer.position(p + 1);
+				skippedBytes++;
+				continue;
+			}
+			if (buffer.remaining() < frameSize)
+				break;
+			if (!isValid(p)) {
+				// drop the header and resynchronize on the next one
+				buffer.position(p + 1);
+				corrupt++;
+				skippedBytes++;
+				continue;
+			}
+			buffer.position(p + frameSize);
+			decoded++;
+			return p;
+		}
+		return -1;
+	}
+
+	private void finish() {
+		// a lone trailing byte is only worth keeping if it may start a header
+		if (buffer.remaining() == 1 && (buffer.get(buffer.position()) & 0xFF) != HEADER_0) {
+			buffer.position(buffer.limit());
+			skippedBytes++;
+		}
+		buffer.compact();
+	}
+
+	private boolean isValid(int p) {
+		int v = p + HEADER_SIZE;
+		// strain gauges sit on the odd channels
+		for (int i = 1; i < numValues; i += 2) {
+			if ((buffer.getShort(v + 2 * i) & 0xFFFF) > Params.ADC_MAX)
+				return false;
+		}
+		int imu = v + 2 * numValues;
+		for (int i = 0; i < 3; i++) {
+			float angle = readFloat(imu + 4 * i);
+			if (Float.isNaN(angle) || angle < -360 || angle > 360)
+				return false;
+		}
+		// when the following bytes are already here they must start a frame
+		int end = p + frameSize;
+		if (buffer.limit() - end >= HEADER_SIZE) {
+			if ((buffer.get(end) & 0xFF) != HEADER_0 || (buffer.get(end + 1) & 0xFF) != HEADER_1)
+				return false;
+		}
+		return true;
+	}
+
+	private void parse(int p, SensorFrame out) {
+		int v = p + HEADER_SIZE;
+		for (int i = 0; i < numValues; i++)
+			out.values[i] = buffer.getShort(v + 2 * i) & 0xFFFF;
+		int imu = v + 2 * numValues;
+		out.yaw = readFloat(imu);
+		out.pitch = readFloat(imu + 4);
+		out.roll = readFloat(imu + 8);
+	}
+
+	private float readFloat(int index) {
+		return Float.intBitsToFloat(Integer.reverseBytes(buffer.getInt(index)));
+	}
+
+	public int getFrameSize() { return frameSize; }
+
+	public long getDecoded() { return decoded; }
+
+	public long getCorrupt() { return corrupt; }
+
+	public long getSkippedBytes() { return skippedBytes; }
+
+	/** Complete frames latest() skipped because a newer one was buffered. */
+	public long getSuperseded() { return superseded; }
+}
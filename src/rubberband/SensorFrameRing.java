@@ -0,0 +1,78 @@
+package rubberband;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer / single-consumer ring of preallocated frames. The producer
+ * fills the slot returned by claim() and then calls publish(); the consumer
+ * reads the slot returned by peek() and then calls release(). Neither side
+ * ever blocks, and no frame is allocated after construction.
+ */
+public class SensorFrameRing {
+
+	private final SensorFrame[] slots;
+	private final int mask;
+
+	// next slot to read, only advanced by the consumer
+	private final AtomicLong head = new AtomicLong(0);
+	// next slot to write, only advanced by the producer
+	private final AtomicLong tail = new AtomicLong(0);
+
+	private final AtomicLong dropped = new AtomicLong(0);
+
+	public SensorFrameRing(int capacity, int numValues) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		slots = new SensorFrame[size];
+		for (int i = 0; i < size; i++)
+			slots[i] = new SensorFrame(numValues);
+		mask = size - 1;
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// producer side
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	/** Returns the slot to fill, or null when the consumer has fallen behind. */
+	public SensorFrame claim() {
+		long t = tail.get();
+		if (t - head.get() >= slots.length)
+			return null;
+		return slots[(int) t & mask];
+	}
+
+	public void publish() {
+		tail.lazySet(tail.get() + 1);
+	}
+
+	/** Records a frame the producer discarded because claim() returned null. */
+	public void drop() {
+		dropped.incrementAndGet();
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// consumer side
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	/** Returns the oldest published frame, or null if the ring is empty. */
+	public SensorFrame peek() {
+		long h = head.get();
+		if (h >= tail.get())
+			return null;
+		return slots[(int) h & mask];
+	}
+
+	public void release() {
+		head.lazySet(head.get() + 1);
+	}
+
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int capacity() { return slots.length; }
+
+	/** Number of frames the producer could not publish because the ring was full. */
+	public long getDropped() { return dropped.get(); }
+}
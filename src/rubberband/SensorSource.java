@@ -0,0 +1,36 @@
+package rubberband;
+
+/**
+ * Where sensor frames come from. A source fills the frame ring from its own
+ * thread, ArduinoIO drains the ring on the render thread and dispatches the
+ * values, so the pipeline behind it doesn't know whether the strip is
+ * attached or a recorded session is played back.
+ */
+public interface SensorSource {
+
+	/**
+	 * Starts producing frames into the ring. Every published frame is
+	 * stamped with System.nanoTime() and a sequence number and handed to the
+	 * recorder, which may be null.
+	 */
+	void start(SensorFrameRing frames, SessionRecorder recorder);
+
+	void stop();
+
+	/** False once the source has stopped or reached the end of its data. */
+	boolean isRunning();
+
+	/** Sources that receive frames in batches skip superseded frames under LATEST. */
+	void setCoalescePolicy(CoalescePolicy policy);
+
+	/** Sends data back to the device, ignored when there is none. */
+	void write(byte[] data);
+
+	/** Frames rejected as corrupt. */
+	long getCorruptFrames();
+
+	long getSkippedBytes();
+
+	/** Complete frames skipped because a newer one was already available. */
+	long getSupersededFrames();
+}
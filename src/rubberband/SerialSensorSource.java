@@ -0,0 +1,147 @@
+package rubberband;
+
+import processing.core.PApplet;
+import processing.serial.Serial;
+
+/**
+ * Reads sensor frames from the Arduino over a serial port. A daemon thread
+ * reads whatever bytes are available, decodes complete frames and publishes
+ * them into the frame ring.
+ */
+public class SerialSensorSource implements SensorSource {
+
+	private final Serial serial;
+	private final SensorFrameDecoder decoder;
+	private final SensorFrame scratch;
+	private final byte[] readBuffer;
+
+	private SensorFrameRing frames;
+	private SessionRecorder recorder;
+	private volatile CoalescePolicy policy = Params.COALESCE_POLICY;
+	private Thread reader;
+	private volatile boolean running = false;
+	private long sequence = 0;
+	private long superseded = 0; // coalesced away while recording
+
+	public SerialSensorSource(PApplet pApplet, String port, int baudRate, int numValues) {
+		String[] serialDevices = Serial.list();
+		System.out.println(serialDevices.length);
+		for (int i = 0; i < serialDevices.length; i++)
+			System.out.println(serialDevices[i]);
+
+		serial = new Serial(pApplet, port, baudRate);
+		decoder = new SensorFrameDecoder(numValues);
+		scratch = new SensorFrame(numValues);
+		readBuffer = new byte[decoder.maxFeedSize()];
+	}
+
+	public void start(SensorFrameRing frames, SessionRecorder recorder) {
+		if (reader != null)
+			return;
+		this.frames = frames;
+		this.recorder = recorder;
+		running = true;
+		reader = new Thread(new Runnable() {
+			public void run() {
+				ingest();
+			}
+		}, "ArduinoIO-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public void stop() {
+		running = false;
+		if (reader != null) {
+			try {
+				reader.join(500);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			reader = null;
+		}
+		serial.stop();
+	}
+
+	public boolean isRunning() { return running; }
+
+	private void ingest() {
+		while (running) {
+			int n = serial.readBytes(readBuffer);
+			if (n <= 0) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			decoder.feed(readBuffer, 0, n);
+			if (policy == CoalescePolicy.LATEST && recorder != null && recorder.isRecording()) {
+				publishLatestRecorded();
+				continue;
+			}
+
+			while (true) {
+				SensorFrame frame = frames.claim();
+				if (frame == null) {
+					// a full ring still has to consume the frames
+					if (!decode(scratch))
+						break;
+					stamp(scratch);
+					frames.drop();
+					continue;
+				}
+				if (!decode(frame))
+					break;
+				stamp(frame);
+				frames.publish();
+			}
+		}
+	}
+
+	// the recording gets every frame, the ring only the newest
+	private void publishLatestRecorded() {
+		boolean decoded = false;
+		while (decoder.next(scratch)) {
+			if (decoded)
+				superseded++;
+			stamp(scratch);
+			decoded = true;
+		}
+		if (!decoded)
+			return;
+		SensorFrame frame = frames.claim();
+		if (frame == null) {
+			frames.drop();
+			return;
+		}
+		frame.copyFrom(scratch);
+		frames.publish();
+	}
+
+	private boolean decode(SensorFrame frame) {
+		if (policy == CoalescePolicy.LATEST)
+			return decoder.latest(frame);
+		return decoder.next(frame);
+	}
+
+	private void stamp(SensorFrame frame) {
+		frame.timestamp = System.nanoTime();
+		frame.sequence = sequence++;
+		if (recorder != null)
+			recorder.record(frame);
+	}
+
+	public void setCoalescePolicy(CoalescePolicy policy) { this.policy = policy; }
+
+	public void write(byte[] data) {
+		serial.write(data);
+	}
+
+	public long getCorruptFrames() { return decoder.getCorrupt(); }
+
+	public long getSkippedBytes() { return decoder.getSkippedBytes(); }
+
+	public long getSupersededFrames() { return decoder.getSuperseded() + superseded; }
+}
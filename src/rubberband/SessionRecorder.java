@@ -0,0 +1,220 @@
+package rubberband;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the raw sensor frames of a session to a binary file. The ingest
+ * thread hands every frame it decodes to record(), which only copies it into
+ * a preallocated ring; encoding and file I/O happen on the recorder's own
+ * thread, so a long capture costs neither the reader nor draw() any time.
+ * When the writer falls behind, frames are dropped and counted.
+ *
+ * File layout, big endian, optionally gzip compressed as a whole:
+ *
+ *   header: MAGIC int | VERSION short | numValues short | start time long (ms since epoch)
+ *   frame:  micros since previous frame int | numValues x uint16 | yaw, pitch, roll float
+ *
+ * The first frame has a delta of 0.
+ */
+public class SessionRecorder {
+
+	public static final int MAGIC = 0x5242534E; // "RBSN"
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 4 + 2 + 2 + 8;
+
+	private final int numValues;
+	private final int frameSize;
+	private final SensorFrameRing queue;
+
+	// set by the control thread, read by the ingest thread
+	private volatile boolean accepting = false;
+	private volatile long deadline;     // System.nanoTime() at which recording ends
+	private volatile boolean finished = true;
+
+	private Thread writerThread;
+	private String file;
+	private boolean compress;
+	// writer thread only
+	private long recorded = 0;
+	private long firstTimestamp;
+	private long lastMicros;
+
+	public SessionRecorder(int numValues, int queueSize) {
+		this.numValues = numValues;
+		frameSize = frameSize(numValues);
+		queue = new SensorFrameRing(queueSize, numValues);
+	}
+
+	public static int frameSize(int numValues) {
+		return 4 + 2 * numValues + 3 * 4;
+	}
+
+	/**
+	 * Starts writing to file. Recording ends after the given number of seconds
+	 * (0 records until stop()), the file is gzip compressed if compress is set.
+	 */
+	public synchronized void start(String file, double seconds, boolean compress) {
+		if (writerThread != null)
+			stop();
+		awaitWriter();
+
+		// frames left over from the previous session
+		while (queue.peek() != null)
+			queue.release();
+
+		this.file = file;
+		this.compress = compress;
+		recorded = 0;
+		deadline = seconds > 0 ? System.nanoTime() + (long) (seconds * 1e9) : Long.MAX_VALUE;
+		finished = false;
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "SessionRecorder");
+		writerThread.setDaemon(true);
+		accepting = true;
+		writerThread.start();
+	}
+
+	/** Stops accepting frames, the writer finishes the queued ones and closes the file. */
+	public synchronized void stop() {
+		accepting = false;
+	}
+
+	/** Stops recording and waits until the file is closed. */
+	public synchronized void close() {
+		stop();
+		awaitWriter();
+	}
+
+	private void awaitWriter() {
+		if (writerThread == null)
+			return;
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writerThread = null;
+	}
+
+	/** True from start() until the last frame is on disk. */
+	public boolean isRecording() {
+		return !finished;
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// ingest thread, producer of the queue
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	public void record(SensorFrame frame) {
+		if (!accepting)
+			return;
+		if (frame.timestamp - deadline > 0) {
+			accepting = false;
+			return;
+		}
+		SensorFrame slot = queue.claim();
+		if (slot == null) {
+			queue.drop();
+			return;
+		}
+		slot.copyFrom(frame);
+		queue.publish();
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// writer thread, consumer of the queue
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	private void write() {
+		FileOutputStream out = null;
+		OutputStream gzip = null;
+		try {
+			out = new FileOutputStream(file);
+			FileChannel channel = out.getChannel();
+			if (compress)
+				gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16);
+
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, 2 * frameSize));
+			buffer.putInt(MAGIC);
+			buffer.putShort(VERSION);
+			buffer.putShort((short) numValues);
+			buffer.putLong(System.currentTimeMillis());
+
+			while (true) {
+				SensorFrame frame = queue.peek();
+				if (frame == null) {
+					if (System.nanoTime() - deadline > 0)
+						accepting = false;
+					if (!accepting)
+						break;
+					if (buffer.position() > 0)
+						flush(buffer, channel, gzip);
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						break;
+					}
+					continue;
+				}
+				if (buffer.remaining() < frameSize)
+					flush(buffer, channel, gzip);
+				encode(frame, buffer);
+				queue.release();
+			}
+			flush(buffer, channel, gzip);
+		} catch (IOException e) {
+			e.printStackTrace();
+			accepting = false;
+		} finally {
+			try {
+				// closing the gzip stream writes its trailer and closes the file
+				if (gzip != null)
+					gzip.close();
+				else if (out != null)
+					out.close();
+			} catch (IOException e) { e.printStackTrace(); }
+			finished = true;
+		}
+	}
+
+	private void encode(SensorFrame frame, ByteBuffer buffer) {
+		if (recorded == 0)
+			firstTimestamp = frame.timestamp;
+		// deltas of the rounded absolute time, so rounding errors don't add up
+		long micros = (frame.timestamp - firstTimestamp) / 1000;
+		long delta = recorded == 0 ? 0 : micros - lastMicros;
+		buffer.putInt((int) Math.min(Math.max(delta, 0), Integer.MAX_VALUE));
+		for (int i = 0; i < numValues; i++)
+			buffer.putShort((short) frame.values[i]);
+		buffer.putFloat(frame.yaw);
+		buffer.putFloat(frame.pitch);
+		buffer.putFloat(frame.roll);
+		lastMicros = micros;
+		recorded++;
+	}
+
+	private void flush(ByteBuffer buffer, FileChannel channel, OutputStream gzip) throws IOException {
+		buffer.flip();
+		if (gzip != null)
+			gzip.write(buffer.array(), 0, buffer.limit());
+		else {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public String getFile() { return file; }
+
+	/** Frames lost because the writer could not keep up. */
+	public long getDropped() { return queue.getDropped(); }
+}
@@ -0,0 +1,105 @@
+package rubberband;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+
+/**
+ * Classifies a radius vector with the loaded SVM model. Plain predictions
+ * go through a CompiledSvmModel when the kernel allows it, libsvm is used
+ * for probability estimates and precomputed kernels. The feature nodes and
+ * scratch buffers are allocated once and filled in place, an instance is
+ * therefore confined to one thread.
+ */
+public class ShapeClassifier {
+
+	private final svm_model model;
+	private final CompiledSvmModel compiled;
+	private final double[] kvalue;
+	private final int[] vote;
+	private final svm_node[] nodes;
+	private final int[] labels;
+	private final double[] probabilities; // null when the model has no probability info
+
+	private double probability = Double.NaN;
+
+	public ShapeClassifier(svm_model model, int numFeatures) {
+		int used = maxFeatureIndex(model);
+		if (used > numFeatures)
+			throw new IllegalArgumentException("model uses feature " + used
+					+ " but only " + numFeatures + " sensors are available");
+
+		this.model = model;
+		if (CompiledSvmModel.canCompile(model)) {
+			compiled = new CompiledSvmModel(model, numFeatures);
+			kvalue = new double[compiled.kernelBufferSize()];
+			vote = new int[compiled.voteBufferSize()];
+		}
+		else {
+			compiled = null;
+			kvalue = null;
+			vote = null;
+		}
+		nodes = new svm_node[numFeatures];
+		for (int j = 0; j < numFeatures; j++) {
+			nodes[j] = new svm_node();
+			nodes[j].index = j + 1;
+		}
+
+		int nr_class = svm.svm_get_nr_class(model);
+		labels = new int[nr_class];
+		svm.svm_get_labels(model, labels);
+		if (svm.svm_check_probability_model(model) == 1)
+			probabilities = new double[nr_class];
+		else
+			probabilities = null;
+	}
+
+	private static int maxFeatureIndex(svm_model model) {
+		int max = 0;
+		for (int i = 0; i < model.l; i++) {
+			svm_node[] sv = model.SV[i];
+			for (int j = 0; j < sv.length; j++)
+				max = Math.max(max, sv[j].index);
+		}
+		return max;
+	}
+
+	private void fill(double[] values) {
+		for (int j = 0; j < nodes.length; j++)
+			nodes[j].value = values[j];
+	}
+
+	public int classify(double[] values) {
+		probability = Double.NaN;
+		if (compiled != null)
+			return (int) compiled.predict(values, kvalue, vote);
+		fill(values);
+		return (int) svm.svm_predict(model, nodes);
+	}
+
+	/**
+	 * Like classify(), and also estimates the probability of the predicted
+	 * class, see getProbability(). Falls back to classify() when the model
+	 * was trained without probability information.
+	 */
+	public int classifyWithProbability(double[] values) {
+		if (probabilities == null)
+			return classify(values);
+		fill(values);
+		int v = (int) svm.svm_predict_probability(model, nodes, probabilities);
+		probability = Double.NaN;
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] == v)
+				probability = probabilities[i];
+		}
+		return v;
+	}
+
+	public boolean hasProbability() { return probabilities != null; }
+
+	/** Probability of the last class returned by classifyWithProbability(), NaN if unknown. */
+	public double getProbability() { return probability; }
+
+	public int numFeatures() { return nodes.length; }
+}
@@ -0,0 +1,63 @@
+package rubberband;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * Icons of the recognized shapes, keyed by SVM class id. The known icons are
+ * decoded once by preload(), further images are loaded on first use and the
+ * least recently used one is evicted once more than capacity are held.
+ */
+public class ShapeImageCache {
+
+	// class id 5 .. 11, anything else is "no.png"
+	private static final String[] SHAPE_FILES = new String[] {
+		"circle.png", "square.png", "triangle.png", "v_shape.png",
+		"ok.png", "cap.png", "w_shape.png" };
+	private static final int FIRST_SHAPE = 5;
+	private static final String UNKNOWN_FILE = "no.png";
+
+	private final PApplet pApplet;
+	private final LinkedHashMap<String, PImage> images;
+
+	public ShapeImageCache(PApplet pApplet, final int capacity) {
+		this.pApplet = pApplet;
+		images = new LinkedHashMap<String, PImage>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, PImage> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	public void preload() {
+		for (int i = 0; i < SHAPE_FILES.length; i++)
+			get(SHAPE_FILES[i]);
+		get(UNKNOWN_FILE);
+	}
+
+	public PImage get(int shapeClass) {
+		return get(fileFor(shapeClass));
+	}
+
+	public PImage get(String file) {
+		PImage img = images.get(file);
+		if (img == null) {
+			img = pApplet.loadImage(file);
+			if (img != null)
+				images.put(file, img);
+		}
+		return img;
+	}
+
+	public static String fileFor(int shapeClass) {
+		int i = shapeClass - FIRST_SHAPE;
+		if (i >= 0 && i < SHAPE_FILES.length)
+			return SHAPE_FILES[i];
+		return UNKNOWN_FILE;
+	}
+}
@@ -0,0 +1,144 @@
+package rubberband;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import libsvm.svm_model;
+
+/**
+ * Runs the SVM shape classifier on its own thread at a fixed rate over the
+ * latest radius snapshot. The renderer only submits snapshots and reads the
+ * published class, inference never adds to frame time.
+ *
+ * With a rate of 0 every submitted snapshot is classified as soon as the
+ * worker is free.
+ *
+ * A new class is only published after it has been predicted confirmations
+ * times in a row, so a shape on the edge of two classes doesn't flicker.
+ */
+public class ShapeRecognizer {
+
+	private final ShapeClassifier classifier;
+	private final long periodMicros;
+	private final int confirmations;
+
+	private final Object lock = new Object();
+	private final double[] pending;  // guarded by lock
+	private boolean fresh = false;   // guarded by lock
+	private final double[] working; // classifier thread only
+
+	private volatile int shape = -1;
+	private int candidate = -1;
+	private int streak = 0;
+
+	private ScheduledExecutorService executor;
+	private volatile boolean running = false;
+
+	public ShapeRecognizer(svm_model model, int numFeatures, double rateHz, int confirmations) {
+		this.classifier = new ShapeClassifier(model, numFeatures);
+		this.periodMicros = rateHz > 0 ? (long) (1000000 / rateHz) : 0;
+		this.confirmations = Math.max(confirmations, 1);
+		pending = new double[numFeatures];
+		working = new double[numFeatures];
+	}
+
+	public void start() {
+		if (executor != null)
+			return;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ShapeRecognizer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		running = true;
+		if (periodMicros > 0) {
+			executor.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					classify();
+				}
+			}, 0, periodMicros, TimeUnit.MICROSECONDS);
+		}
+		else {
+			executor.execute(new Runnable() {
+				public void run() {
+					classifyEverySample();
+				}
+			});
+		}
+	}
+
+	public void stop() {
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/** Hands the latest radius of every gauge to the classifier, never blocks on inference. */
+	public void submit(double[] radius) {
+		synchronized (lock) {
+			System.arraycopy(radius, 0, pending, 0, pending.length);
+			fresh = true;
+			lock.notifyAll();
+		}
+	}
+
+	/** The last confirmed class, -1 until one has been confirmed. */
+	public int getShape() { return shape; }
+
+	private void classifyEverySample() {
+		while (running) {
+			synchronized (lock) {
+				while (!fresh && running) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			classify();
+		}
+	}
+
+	private void classify() {
+		synchronized (lock) {
+			if (!fresh)
+				return;
+			System.arraycopy(pending, 0, working, 0, working.length);
+			fresh = false;
+		}
+
+		int predicted;
+		try {
+			predicted = classifier.classify(working);
+		} catch (RuntimeException e) {
+			// keep the schedule alive, a failed run would cancel it
+			e.printStackTrace();
+			return;
+		}
+
+		if (predicted == shape) {
+			candidate = predicted;
+			streak = 0;
+		}
+		else if (predicted == candidate) {
+			if (++streak >= confirmations)
+				shape = predicted;
+		}
+		else {
+			candidate = predicted;
+			streak = 1;
+			if (confirmations == 1)
+				shape = predicted;
+		}
+	}
+}
@@ -0,0 +1,632 @@
+package rubberband;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import rubberband.math.ArcLengthTable;
+import rubberband.math.CurvatureEngine;
+import rubberband.math.FilterChain;
+import rubberband.math.KinematicChain;
+import rubberband.math.LeastSquareFit;
+import rubberband.math.LookupTable;
+import rubberband.math.RecursiveLeastSquares;
+import rubberband.math.Spline;
+
+/**
+ * Turns the strain values of one strip into its shape, without any
+ * Processing dependency:
+ *
+ *   raw value -> filter -> radius -> kinematic chain -> spline -> curvature -> LED bytes
+ *
+ * update() runs the per sample stages up to the kinematic chain, reconstruct()
+ * the per frame stages after it, and only when the chain has moved.
+ *
+ * All state, from calibration to the output buffers, belongs to the
+ * instance. An engine must only be used by one thread at a time, separate
+ * engines can run on separate threads.
+ */
+public class ShapeReconstructionEngine {
+
+	private final StripInfo strip;
+	private final int numGauges;
+	private final int numLeds;
+
+	private final StrainGauge[] gauges;
+
+	// response curve of the strip, raw value offset -> curvature, and its inverse
+	private LeastSquareFit LSF_P;
+	private LeastSquareFit LSF_N;
+	private LeastSquareFit invLSF_P;
+	private LeastSquareFit invLSF_N;
+	// mapped values between which the response curves rise monotonically
+	private double responseMin, responseMax;
+
+	// offset value of each strain gauge
+	private final double[] flatValue;
+
+	private final double[] strain;   // mapped gauge values of the last frame
+	private final double[] radii;    // curvature radius of every gauge
+	private final double[] gapInput; // invLSF_Evaluate(1 / radius) of every gauge
+
+	// transfer functions tabulated over the ADC range, rebuilt lazily after
+	// calibration or a change of flatValue. Curvature is tabulated rather than
+	// radius, it stays smooth where the radius goes to infinity.
+	private final LookupTable[] curvatureTables;
+	private final LookupTable[] gapInputTables;
+	private final LookupTable gapCurvatureTable;
+	private final boolean[] gaugeTablesDirty;
+	private boolean tablesDirty = true; // any of gaugeTablesDirty
+	// gauges recalibrated since the last update, they are evaluated exactly
+	// and their tables only rebuilt once the reference samples stop
+	private final boolean[] recalibrated;
+
+	// continue each gauge's mapLSF from reference shapes, null until calibrated
+	private final RecursiveLeastSquares[] recalibration;
+
+	// segment poses of the strip, updated once per sensor update
+	private final KinematicChain chain;
+
+	// splines refit in place every frame
+	private final Spline xs, ys;
+	private final ArcLengthTable arcLength;
+	private final CurvatureEngine curvatures;
+	private final float[] led_t;
+	private final byte[] leds;
+
+	private ShapeClassifier classifier = null;
+	private int shape = -1;
+	private boolean shapeDirty = true;
+
+	private float yaw, pitch, roll;
+	private long timestamp, sequence;
+
+	public ShapeReconstructionEngine(StripInfo strip) {
+		this(strip, Params.NUM_STRAIN_SENSORS, Params.NUM_NEOPIXELS);
+	}
+
+	public ShapeReconstructionEngine(StripInfo strip, int numGauges, int numLeds) {
+		this.strip = strip;
+		this.numGauges = numGauges;
+		this.numLeds = numLeds;
+
+		String filterSpec = strip.filter_chain != null ? strip.filter_chain : Params.FILTER_CHAIN;
+		gauges = new StrainGauge[numGauges];
+		for (int i = 0; i < numGauges; i++)
+			gauges[i] = new StrainGauge(Params.GAUGE_LENGTH, FilterChain.parse(filterSpec));
+
+		flatValue = new double[numGauges];
+		strain = new double[numGauges];
+		radii = new double[numGauges];
+		gapInput = new double[numGauges];
+		recalibration = new RecursiveLeastSquares[numGauges];
+		gaugeTablesDirty = new boolean[numGauges];
+		Arrays.fill(gaugeTablesDirty, true);
+		recalibrated = new boolean[numGauges];
+		int points = Params.ADC_MAX * Params.RADIUS_TABLE_RESOLUTION + 1;
+		curvatureTables = new LookupTable[numGauges];
+		gapInputTables = new LookupTable[numGauges];
+		for (int i = 0; i < numGauges; i++) {
+			curvatureTables[i] = new LookupTable(0, Params.ADC_MAX, points);
+			gapInputTables[i] = new LookupTable(0, Params.ADC_MAX, points);
+		}
+		// gap inputs are mapped values, beyond the ADC range the strip is folded
+		// tighter than the calibration covers and the fits are evaluated directly
+		gapCurvatureTable = new LookupTable(-Params.ADC_MAX, Params.ADC_MAX, 2 * points - 1);
+
+		chain = new KinematicChain(numGauges);
+		xs = new Spline(numGauges + 1);
+		ys = new Spline(numGauges + 1);
+		arcLength = new ArcLengthTable(numGauges + 1, Params.ARC_LENGTH_SUBDIVISIONS);
+		curvatures = new CurvatureEngine(numLeds);
+		led_t = new float[numLeds];
+		leds = new byte[ledPacketSize(numLeds)];
+		leds[0] = (byte) 0xFF;
+		leds[1] = (byte) 0xFE;
+
+		updateKinematics();
+		init_StrainGague_Mapping();
+		calibrationStrainGauge();
+	}
+
+	/** Classifies the radii on every reconstruct(), null to leave classification to the caller. */
+	public void setClassifier(ShapeClassifier classifier) {
+		this.classifier = classifier;
+		shapeDirty = true;
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Per sample stages
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	/** Maps the wire values of a frame to gauges and runs update() on them. */
+	public void update(SensorFrame frame) {
+		update(map(frame));
+		yaw = frame.yaw;
+		pitch = frame.pitch;
+		roll = frame.roll;
+		timestamp = frame.timestamp;
+		sequence = frame.sequence;
+	}
+
+	/** Filters one value per gauge and brings the radii and the kinematic chain up to date. */
+	public void update(double[] rVal) {
+		boolean tables = Params.RADIUS_TABLES;
+		if (tables && tablesDirty)
+			buildTables();
+
+		for (int i = 0; i < numGauges; i++) {
+			gauges[i].update(rVal[i]);
+			double v = gauges[i].getCurrentValue();
+			if (tables && !gaugeTablesDirty[i]) {
+				radii[i] = 1 / curvatureTables[i].evaluate(v);
+				gapInput[i] = gapInputTables[i].evaluate(v);
+			}
+			else {
+				radii[i] = getCurveRadius(i, v);
+				gapInput[i] = invLSF_Evaluate(1.0f / radii[i]);
+			}
+			gauges[i].setCurvatureRadius((float) radii[i]);
+		}
+		// FIXME add rational radius on gap region
+
+		// set by average in response curve
+		float magicNumber = strip.gap_radius_fix;
+		for (int i = 0; i < numGauges - 1; i++) {
+			double m = (gapInput[i] + gapInput[i + 1]) / 2;
+			double r = tables ? 1 / gapCurvatureTable.evaluate(m) : getCurveRadius(-1, m);
+			gauges[i].setNextRadius((float) (magicNumber * r));
+		}
+		gauges[numGauges - 1].setNextRadius(magicNumber * (float) radii[numGauges - 1]);
+
+		Arrays.fill(recalibrated, false);
+		updateKinematics();
+	}
+
+	/** Maps a superseded frame to gauges and runs sample() on it. */
+	public void sample(SensorFrame frame) {
+		sample(map(frame));
+	}
+
+	private double[] map(SensorFrame frame) {
+		int[] mapping = strip.strain_gauge_mapping;
+		for (int i = 0; i < numGauges; i++)
+			strain[i] = frame.values[2 * mapping[i] + 1];
+		return strain;
+	}
+
+	/** A superseded sample only feeds the filter of each gauge. */
+	public void sample(double[] rVal) {
+		for (int i = 0; i < numGauges; i++)
+			gauges[i].update(rVal[i]);
+	}
+
+	// hand the local geometry of every gauge to the chain, only changed
+	// segments and the ones after them are recomputed
+	private void updateKinematics() {
+		for (int i = 0; i < numGauges; i++) {
+			StrainGauge g = gauges[i];
+			chain.setSegment(i, g.getPointX(1), g.getPointY(1),
+					g.getNextStartX(), g.getNextStartY(), g.nextAngle());
+		}
+		if (chain.solve())
+			shapeDirty = true;
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Per frame stages
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	/** Refits the splines and recomputes curvatures, LED bytes and class if the chain moved. */
+	public void reconstruct() {
+		if (!shapeDirty)
+			return;
+
+		xs.fit(chain.getPointX());
+		ys.fit(chain.getPointY());
+
+		if (Params.ARC_LENGTH_SAMPLING) {
+			// NeoPixels sit at equal distances along the strip
+			arcLength.build(xs, ys);
+			arcLength.equidistant(numLeds, led_t);
+			curvatures.sample(xs, ys, led_t, numLeds);
+		}
+		else
+			curvatures.sampleUniform(xs, ys, numLeds);
+
+		encodeLeds();
+
+		if (classifier != null)
+			shape = classifier.classify(radii);
+		shapeDirty = false;
+	}
+
+	private void encodeLeds() {
+		float[] cs = curvatures.curvature;
+		float[] c2 = curvatures.level;
+		int p = 2;
+		for (int i = 0; i < numLeds; i++) {
+			if (cs[i] > 0) {
+				leds[p++] = (byte) 0;
+				leds[p++] = (byte) c2[i];
+				leds[p++] = (byte) 0;
+			} else {
+				leds[p++] = (byte) 0;
+				leds[p++] = (byte) 0;
+				leds[p++] = (byte) c2[i];
+			}
+		}
+	}
+
+	public static int ledPacketSize(int numLeds) {
+		return numLeds * 3 + 2;
+	}
+
+	/** update() and reconstruct() on one frame, the result is copied into out. */
+	public ShapeSnapshot process(SensorFrame frame, ShapeSnapshot out) {
+		update(frame);
+		reconstruct();
+		return snapshot(out);
+	}
+
+	public ShapeSnapshot newSnapshot() {
+		return new ShapeSnapshot(numGauges, numLeds);
+	}
+
+	/** Copies the current shape into out, reconstructing it first if needed. */
+	public ShapeSnapshot snapshot(ShapeSnapshot out) {
+		reconstruct();
+		for (int i = 0; i <= numGauges; i++) {
+			out.poseX[i] = chain.getPoseX(i);
+			out.poseY[i] = chain.getPoseY(i);
+			out.poseAngle[i] = chain.getPoseAngle(i);
+		}
+		System.arraycopy(chain.getPointX(), 0, out.pointX, 0, numGauges + 1);
+		System.arraycopy(chain.getPointY(), 0, out.pointY, 0, numGauges + 1);
+		System.arraycopy(radii, 0, out.radii, 0, numGauges);
+		System.arraycopy(curvatures.x, 0, out.sampleX, 0, numLeds);
+		System.arraycopy(curvatures.y, 0, out.sampleY, 0, numLeds);
+		System.arraycopy(curvatures.curvature, 0, out.curvature, 0, numLeds);
+		System.arraycopy(curvatures.radius, 0, out.radius, 0, numLeds);
+		System.arraycopy(curvatures.level, 0, out.level, 0, numLeds);
+		System.arraycopy(leds, 0, out.leds, 0, leds.length);
+		out.shape = shape;
+		out.yaw = yaw;
+		out.pitch = pitch;
+		out.roll = roll;
+		out.timestamp = timestamp;
+		out.sequence = sequence;
+		return out;
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Calibration
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	/** Takes the current value of every gauge as its flat (zero curvature) offset. */
+	public void setFlat() {
+		for (int i = 0; i < numGauges; i++)
+			flatValue[i] = gauges[i].getCurrentValue();
+		invalidateTables();
+	}
+
+	public void setFlatValue(int idx, double value) {
+		flatValue[idx] = value;
+		invalidateTables(idx);
+	}
+
+	/**
+	 * Tabulates raw value -> curvature and raw value -> gap input of every
+	 * gauge, and mapped value -> gap curvature.
+	 */
+	private void buildTables() {
+		boolean pending = false;
+		for (int i = 0; i < numGauges; i++) {
+			if (!gaugeTablesDirty[i])
+				continue;
+			if (recalibrated[i]) {
+				pending = true;
+				continue;
+			}
+			gaugeTablesDirty[i] = false;
+			final int idx = i;
+			curvatureTables[i].build(new LookupTable.Function() {
+				public double evaluate(double v) {
+					return 1 / getCurveRadius(idx, v);
+				}
+			});
+			gapInputTables[i].build(new LookupTable.Function() {
+				public double evaluate(double v) {
+					return invLSF_Evaluate(1.0f / getCurveRadius(idx, v));
+				}
+			});
+		}
+		// only depends on the response curves, which never change
+		if (!gapCurvatureTable.isBuilt()) {
+			gapCurvatureTable.build(new LookupTable.Function() {
+				public double evaluate(double m) {
+					return 1 / getCurveRadius(-1, m);
+				}
+			});
+		}
+		tablesDirty = pending;
+	}
+
+	private void invalidateTables() {
+		Arrays.fill(gaugeTablesDirty, true);
+		tablesDirty = true;
+	}
+
+	private void invalidateTables(int idx) {
+		gaugeTablesDirty[idx] = true;
+		tablesDirty = true;
+	}
+
+	private void init_StrainGague_Mapping() {
+		int order = 2;
+		double zero = 0;
+		// XXX Add test data if possible
+		// for LSF_Positive
+		double[] input = new double[] { 673.290, 684.805, 710.265, 727.550,
+				742.515, 814.545, 844.690 };
+		zero = input[0];
+		for (int i = 0; i < input.length; i++)
+			input[i] = input[i] - zero;
+		double[] response = new double[] { 0, 1.0/56.32, 1.0/27.66, 1.0/18.11, 1.0/13.33,
+				1.0/10.46, 1.0/8.55};
+		for	(int i = 0; i < response.length; i++)
+			response[i] = response[i] / Params.DISPLAY_RATIO;
+		LSF_P = new LeastSquareFit(input, response, order);
+		invLSF_P = new LeastSquareFit(response, input, order);
+
+		// for LSF_Negative
+		input = new double[] { 705.550, 680.090, 642.130, 616.175,
+				586.685, 507.360, 475.840 };
+		zero = input[0];
+		for (int i = 0; i < input.length; i++)
+			input[i] = input[i] - zero;
+		response = new double[] { 0, -1.0/56.32, -1.0/27.66, -1.0/18.11, -1.0/13.33,
+				-1.0/10.46, -1.0/8.55 };
+		for	(int i = 0; i < response.length; i++)
+			response[i] = response[i] / Params.DISPLAY_RATIO;
+		LSF_N = new LeastSquareFit(input, response, order);
+		invLSF_N = new LeastSquareFit(response, input, order);
+
+		responseMax = 0;
+		while (responseMax < Params.ADC_MAX
+				&& responseCurvature(responseMax + 1) > responseCurvature(responseMax))
+			responseMax++;
+		responseMin = 0;
+		while (responseMin > -Params.ADC_MAX
+				&& responseCurvature(responseMin - 1) < responseCurvature(responseMin))
+			responseMin--;
+	}
+
+	private double invLSF_Evaluate(double d){
+		if (d > 0)
+			return invLSF_P.evaluate(d);
+		else
+			return invLSF_N.evaluate(d);
+	}
+
+	private void calibrationStrainGauge(){
+
+		// XXX appropriate weight to (0, 0), fitted as a single weighted point
+		double zeroWeight = 200;
+		int numDataFromFile = 0;
+		int numData = 0;
+		double[] calCurvature = null;
+		BufferedReader reader = null;
+
+		// ////////////////////////////////////////////////////////////////////////////////
+		// reader header and curvature information from file
+		// ////////////////////////////////////////////////////////////////////////////////
+		try {
+			reader = new BufferedReader(new FileReader(strip.calibration_data_set));
+			try {
+				String line;
+				line = reader.readLine();
+				if (line != null){
+					String[] inStrArr = line.split(" ");
+					numDataFromFile = inStrArr.length;
+					numData = 1 + numDataFromFile;
+					calCurvature = new double[numDataFromFile];
+					for (int i = 0; i < numDataFromFile; i++)
+						calCurvature[i] = 1/Double.parseDouble(inStrArr[i]);
+				}
+				else{
+					System.out.println("Empty file!!!");
+					return;
+				}
+			} catch (IOException e) { e.printStackTrace(); }
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		// ////////////////////////////////////////////////////////////////////////////////
+		// read remaining data from file
+		// ////////////////////////////////////////////////////////////////////////////////
+		double[][] calDataFromTest = new double[numGauges][numData];
+
+		try {
+			String line;
+			int count = 1;
+			while ((line = reader.readLine()) != null){
+				String[] inStrArr = line.split(" ");
+				for (int i = 0; i < numGauges; i++)
+					calDataFromTest[i][count] = Double.parseDouble(inStrArr[i]);
+				count++;
+			}
+		} catch (IOException e) { e.printStackTrace(); }
+		try { reader.close(); } catch (IOException e) { e.printStackTrace(); }
+
+		// ////////////////////////////////////////////////////////////////////////////////
+		// Baseline data from mapping curve
+		// ////////////////////////////////////////////////////////////////////////////////
+		double[] rawDataForCalCurvature = new double[numData];
+		double[] weights = new double[numData];
+		weights[0] = zeroWeight;
+		for (int i = 1; i < numData; i++){
+			weights[i] = 1;
+			double curvature = calCurvature[i-1];
+			if (curvature >= 0)
+				rawDataForCalCurvature[i] = this.invLSF_P.evaluate(curvature);
+			else
+				rawDataForCalCurvature[i] = this.invLSF_N.evaluate(curvature);
+		}
+
+		// ////////////////////////////////////////////////////////////////////////////////
+		// set calibrate LSF regression to each strain gauge
+		// ////////////////////////////////////////////////////////////////////////////////
+		int[] gaugeInOrder1 = strip.calibration_in_order_1;
+		LeastSquareFit.Workspace workspace = new LeastSquareFit.Workspace(numData, 2);
+		int idx = 0;
+		for (int i = 0; i < numGauges; i++){
+			double[] input = calDataFromTest[i];
+			int order = 2;
+
+			if ( idx < gaugeInOrder1.length && i == gaugeInOrder1[idx]){
+				order = 1;
+				idx++;
+			}
+
+			LeastSquareFit lsf = gauges[i].mapLSF;
+			if (lsf == null || lsf.getOrder() != order)
+				lsf = new LeastSquareFit(order);
+			lsf.fit(input, rawDataForCalCurvature, weights, numData, workspace);
+			gauges[i].mapLSF = lsf;
+
+			double[] covariance = new double[(order + 1) * (order + 1)];
+			workspace.covariance(covariance);
+			recalibration[i] = new RecursiveLeastSquares(lsf, covariance,
+					Params.RLS_FORGETTING, Params.RLS_RESIDUAL_SMOOTHING);
+		}
+		invalidateTables();
+		shapeDirty = true;
+	}
+
+	private double responseCurvature(double mappedValue) {
+		return 1 / getCurveRadius(-1, mappedValue);
+	}
+
+	/**
+	 * Mapped value getCurveRadius() turns into the given curvature, found by
+	 * bisection, the target of online recalibration. invLSF_P/N, which the
+	 * batch calibration uses, are fits of their own and too far off near flat
+	 * to follow drift. Curvatures beyond the response curves map to their
+	 * ends.
+	 */
+	private double mappedValueOf(double curvature) {
+		double lo = responseMin, hi = responseMax;
+		if (!(curvature > responseCurvature(lo)))
+			return lo;
+		if (!(curvature < responseCurvature(hi)))
+			return hi;
+		for (int i = 0; i < 64 && hi - lo > 1e-9; i++) {
+			double mid = (lo + hi) / 2;
+			if (responseCurvature(mid) < curvature)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return (lo + hi) / 2;
+	}
+
+	/**
+	 * Adapts the mapping of gauge idx so that its current value maps to the
+	 * given curvature radius, e.g. while the strip lies in a jig of known
+	 * shape or a reference pose gives the curvature. Infinite radius is flat.
+	 */
+	public void recalibrate(int idx, double radius) {
+		if (Double.isNaN(radius))
+			throw new IllegalArgumentException("reference radius of gauge " + idx + " is NaN");
+		if (recalibration[idx] == null)
+			throw new IllegalStateException("gauge " + idx + " is not calibrated");
+		double strainValue = gauges[idx].getCurrentValue() - flatValue[idx];
+		recalibration[idx].update(strainValue, mappedValueOf(1 / radius));
+		recalibrated[idx] = true;
+		invalidateTables(idx);
+		shapeDirty = true;
+	}
+
+	/** Recalibrates every gauge against the radii of a reference shape. */
+	public void recalibrate(double[] radii) {
+		for (int i = 0; i < numGauges; i++)
+			recalibrate(i, radii[i]);
+	}
+
+	/**
+	 * How far the mapping of gauge idx has moved from the calibration file
+	 * through recalibrate(), in mapped units over the calibrated range.
+	 */
+	public double getDrift(int idx) {
+		return recalibration[idx] == null ? 0 : recalibration[idx].getDrift();
+	}
+
+	/** Recent RMS error of gauge idx against the reference shapes, before adapting. */
+	public double getRecalibrationResidual(int idx) {
+		return recalibration[idx] == null ? 0 : recalibration[idx].getResidual();
+	}
+
+	public double getCurveRadius(int idx, double strainValue) {
+		double mappedValue;
+		if (idx == -1){
+			mappedValue = strainValue;
+		}
+		else{
+			mappedValue = strainValue - flatValue[idx];
+			mappedValue = gauges[idx].mapLSF.evaluate(mappedValue);
+		}
+		// XXX
+		int threshold = 50;
+		double base = 1.05;
+		if (mappedValue >= 0){
+			double r;
+			if ( mappedValue < threshold )
+				r = 1.0/LSF_P.evaluate( mappedValue ) * Math.pow(base, threshold-mappedValue);
+			else
+				r = 1.0/LSF_P.evaluate( mappedValue );
+			return r;
+		}
+		else{
+			double r;
+			if ( mappedValue > -threshold )
+				r = 1.0/LSF_N.evaluate( mappedValue ) * Math.pow(base, threshold+mappedValue);
+			else
+				r = 1.0/LSF_N.evaluate( mappedValue );
+			return r;
+		}
+	}
+
+	// ////////////////////////////////////////////////////////////////////////////////
+	// Accessors, the arrays are owned by the engine and must not be modified
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	public StripInfo getStrip() { return strip; }
+
+	public int numGauges() { return numGauges; }
+
+	public int numLeds() { return numLeds; }
+
+	public StrainGauge[] getGauges() { return gauges; }
+
+	public StrainGauge getGauge(int i) { return gauges[i]; }
+
+	/** Use setFlat() or setFlatValue() to change the offsets. */
+	public double[] getFlatValue() { return flatValue; }
+
+	public double[] getRadii() { return radii; }
+
+	public KinematicChain getChain() { return chain; }
+
+	/** Samples of the last reconstruct(). */
+	public CurvatureEngine getCurvatures() { return curvatures; }
+
+	/** NeoPixel packet of the last reconstruct(). */
+	public byte[] getLedBytes() { return leds; }
+
+	public int getShape() { return shape; }
+}
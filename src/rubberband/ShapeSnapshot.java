@@ -0,0 +1,71 @@
+package rubberband;
+
+/**
+ * The reconstructed shape of a strip at one sensor frame, as produced by
+ * ShapeReconstructionEngine.snapshot(). All arrays are allocated once and
+ * overwritten by every snapshot, so a snapshot can be handed to another
+ * thread and reused afterwards without allocating.
+ */
+public class ShapeSnapshot {
+
+	// world pose at the start of each segment, index segments is the end of the strip
+	public final float[] poseX, poseY, poseAngle;
+	// spline control points, segments + 1 entries
+	public final float[] pointX, pointY;
+	// curvature radius of every gauge
+	public final double[] radii;
+
+	// samples along the spline, one per LED
+	public final float[] sampleX, sampleY;
+	public final float[] curvature; // signed
+	public final float[] radius;
+	public final float[] level;     // |curvature| re-mapped to [0, 255]
+
+	// NeoPixel packet, header and 3 bytes per LED
+	public final byte[] leds;
+
+	public int shape = -1;  // class predicted for the radii, -1 if not classified
+	public float yaw, pitch, roll;
+	public long timestamp;  // of the sensor frame the shape was built from
+	public long sequence;
+
+	public ShapeSnapshot(int segments, int samples) {
+		poseX = new float[segments + 1];
+		poseY = new float[segments + 1];
+		poseAngle = new float[segments + 1];
+		pointX = new float[segments + 1];
+		pointY = new float[segments + 1];
+		radii = new double[segments];
+		sampleX = new float[samples];
+		sampleY = new float[samples];
+		curvature = new float[samples];
+		radius = new float[samples];
+		level = new float[samples];
+		leds = new byte[ShapeReconstructionEngine.ledPacketSize(samples)];
+	}
+
+	public int segments() { return radii.length; }
+
+	public int samples() { return sampleX.length; }
+
+	public void copyFrom(ShapeSnapshot other) {
+		System.arraycopy(other.poseX, 0, poseX, 0, poseX.length);
+		System.arraycopy(other.poseY, 0, poseY, 0, poseY.length);
+		System.arraycopy(other.poseAngle, 0, poseAngle, 0, poseAngle.length);
+		System.arraycopy(other.pointX, 0, pointX, 0, pointX.length);
+		System.arraycopy(other.pointY, 0, pointY, 0, pointY.length);
+		System.arraycopy(other.radii, 0, radii, 0, radii.length);
+		System.arraycopy(other.sampleX, 0, sampleX, 0, sampleX.length);
+		System.arraycopy(other.sampleY, 0, sampleY, 0, sampleY.length);
+		System.arraycopy(other.curvature, 0, curvature, 0, curvature.length);
+		System.arraycopy(other.radius, 0, radius, 0, radius.length);
+		System.arraycopy(other.level, 0, level, 0, level.length);
+		System.arraycopy(other.leds, 0, leds, 0, leds.length);
+		shape = other.shape;
+		yaw = other.yaw;
+		pitch = other.pitch;
+		roll = other.roll;
+		timestamp = other.timestamp;
+		sequence = other.sequence;
+	}
+}
@@ -1,12 +1,9 @@
 package rubberband;
 
 import java.awt.geom.Point2D;
-import java.util.*;
 
 import math.geom2d.Vector2D;
 
-import processing.core.PApplet;
-
 import rubberband.math.*;
 
 public class StrainGauge {
@@ -15,75 +12,94 @@ public class StrainGauge {
 	private float gaugeLength;
 	private float radius;
 	private float nextRadius;
-	private Point2D.Float nextStart;
-	private final PApplet pApplet;
+	private Point2D.Float nextStart = new Point2D.Float();
+	private float nextAngle;
+	private float displaceX, displaceY;
+	private final float[] ptsX = new float[STEPS];
+	private final float[] ptsY = new float[STEPS];
+	private final Point2D.Float[] pts = new Point2D.Float[STEPS];
+	private boolean geometryDirty = true;
 	private double value;
-	private Vector<Double> dataWindow;
+	private SignalFilter filter;
 	
 	// for debug
-	public Vector<Float> radiusWindow;
-	public Vector<Float> rawWindow;
+	private RingBuffer radiusWindow;
+	private RingBuffer rawWindow;
 	
 	// for calibration
 	public LeastSquareFit mapLSF;
 	
-	private static int DATA_WINDOW_SIZE = Params.DATA_WINDOW_SIZE;
-	private static int RADIUS_WINDOW_SIZE = Params.WINDOW_WIDTH;
-	private static boolean DATA_ON = Params.DATAON;
+	private static final int STEPS = 4;
+	private static final double SAMPLE_PERIOD = Params.SAMPLE_PERIOD;
+	private static final int RADIUS_WINDOW_SIZE = Params.WINDOW_WIDTH;
+	private static final boolean DATA_ON = Params.DATAON;
+
+	public StrainGauge(float gaugeLength) {
+		this(gaugeLength, FilterChain.parse(Params.STRIP.filter_chain != null
+				? Params.STRIP.filter_chain : Params.FILTER_CHAIN));
+	}
 
-	public StrainGauge(final PApplet pApplet, float gaugeLength) {
-		this.pApplet = pApplet;
+	public StrainGauge(float gaugeLength, SignalFilter filter) {
 		this.x = 0;
 		this.y = 0;
 		this.gaugeLength = gaugeLength;
 		this.radius = getCurvatureRadius();
 		value = 0;
-		dataWindow = new Vector<Double>();
-		for(int i = 0; i < DATA_WINDOW_SIZE; i++)
-			dataWindow.add((double) 0);
+		this.filter = filter;
+		for (int i = 0; i < STEPS; i++)
+			pts[i] = new Point2D.Float();
 		if (DATA_ON){
-			radiusWindow = new Vector<Float>();
-			for (int i = 0; i < RADIUS_WINDOW_SIZE; i++)
-				radiusWindow.add(0.0f);
-			rawWindow = new Vector<Float>();
-			for (int i = 0; i < RADIUS_WINDOW_SIZE; i++)
-				rawWindow.add(0.0f);
+			radiusWindow = new RingBuffer(RADIUS_WINDOW_SIZE);
+			rawWindow = new RingBuffer(RADIUS_WINDOW_SIZE);
 		}
 	}
 	
 	public void update(double rVal){
-		if (!dataWindow.isEmpty()){
-			dataWindow.remove(0);
-			dataWindow.add(rVal);
-			double sum = 0;
-			for (int i = 0; i < DATA_WINDOW_SIZE; i++)
-				sum = sum + dataWindow.get(i);
-			value = sum / DATA_WINDOW_SIZE;
-			if (DATA_ON){
-				rawWindow.remove(0);
-				rawWindow.add((float)value);
-			}
-		}
-		else
-			System.out.println("Err! dataWindow empty");
+		update(rVal, SAMPLE_PERIOD);
+	}
+
+	// dt in seconds since the previous sample
+	public void update(double rVal, double dt){
+		value = filter.filter(rVal, dt);
+		if (DATA_ON)
+			rawWindow.push(value);
 	}
 	
 	public double getCurrentValue(){ return value; }
 
+	public void setFilter(SignalFilter filter){
+		filter.reset(value);
+		this.filter = filter;
+	}
+
+	public SignalFilter getFilter(){ return filter; }
+
+	// smoothed values, oldest first
+	public DoubleWindow getRawWindow(){ return rawWindow; }
+
+	// curvature radius, oldest first
+	public DoubleWindow getRadiusWindow(){ return radiusWindow; }
+
 	public void setLocation(float x, float y) {
 		this.x = x;
 		this.y = y;
 	}
 
 	public void setCurvatureRadius(float radius) {
-		this.radius = radius;
-		if (DATA_ON){
-			radiusWindow.remove(0);
-			radiusWindow.add(radius);
+		if (radius != this.radius) {
+			this.radius = radius;
+			geometryDirty = true;
 		}
+		if (DATA_ON)
+			radiusWindow.push(radius);
 	}
 	
-	public void setNextRadius(float r){ nextRadius = r; }
+	public void setNextRadius(float r){
+		if (r != nextRadius) {
+			nextRadius = r;
+			geometryDirty = true;
+		}
+	}
 	
 	private float getCurvatureRadius() {
 		// return (float) (Math.random() * 2 - 1.0) * 20;
@@ -95,9 +111,13 @@ public class StrainGauge {
 		return (float) random;
 	}
 
-	public Point2D.Float[] getPoints() {
-		int steps = 4;
-		Point2D.Float[] pts = new Point2D.Float[steps];
+	// ////////////////////////////////////////////////////////////////////////////////
+	// arc geometry, cached until the radius or the next radius changes
+	// ////////////////////////////////////////////////////////////////////////////////
+
+	private void updateGeometry() {
+		if (!geometryDirty)
+			return;
 
 		// positive sign == downward
 		float sign = (radius > 0) ? 1.0f : -1.0f;
@@ -106,106 +126,88 @@ public class StrainGauge {
 		float gaugeInRadius = (float) (gaugeLength / radiusAbs);
 
 		float dRadius = 0;
-		for (int i = 0; i < steps; i++) {
-			dRadius = i * (gaugeInRadius / steps);
-			pts[i] = new Point2D.Float();
-			pts[i].x = (float) Math.sin(dRadius) * radiusAbs;
-			pts[i].y = (float) (sign * (radiusAbs - Math.cos(dRadius)
+		for (int i = 0; i < STEPS; i++) {
+			dRadius = i * (gaugeInRadius / STEPS);
+			ptsX[i] = (float) Math.sin(dRadius) * radiusAbs;
+			ptsY[i] = (float) (sign * (radiusAbs - Math.cos(dRadius)
 					* radiusAbs));
-
-			// System.out.println(i + ", " + pts[i].x + ", " + pts[i].y);
+			pts[i].x = ptsX[i];
+			pts[i].y = ptsY[i];
 		}
 
-		return pts;
+		displaceByRadius(nextRadius);
+		nextStart.x = ptsX[STEPS - 1] + displaceX;
+		nextStart.y = ptsY[STEPS - 1] + displaceY;
+
+		nextAngle = (float)(gaugeLength/radius + Params.GAUGE_SPACING/nextRadius);
+
+		geometryDirty = false;
 	}
 
-	public void draw() {
-		pApplet.stroke(0);
-		pApplet.fill(255, 0, 0);
-		Point2D.Float[] pts = getPoints();
-//		for (int i = 0; i < pts.length; i++) {
-//			pApplet.ellipse(pts[i].x, pts[i].y, 2, 2);
-//		}
-		pApplet.strokeWeight(2);
-		pApplet.stroke(0);
-		pApplet.line(pts[0].x, pts[1].y, 0, pts[0].x, pts[1].y, Params.STRIP_WIDTH);
-		pApplet.line(pts[pts.length-1].x, pts[pts.length-1].y, 0, 
-				pts[pts.length-1].x, pts[pts.length-1].y, Params.STRIP_WIDTH);
-		pApplet.strokeWeight(1);
-		
-//		Point2D.Float last = pts[pts.length - 1];
-//		if (Params.DEBUG)
-//			pApplet.text((int) radius, last.x, last.y-5);
-
-//		Point2D.Float next = nextStart();
-		// TODO draw arc install of line
-//		pApplet.line(last.x, last.y, next.x, next.y);
-
-		if (Params.DEBUG) {
-			pApplet.stroke(0, 0, 255);
-			pApplet.noFill();
-			if (radius < 200 && radius > -200)
-				pApplet.ellipse(0, radius, radius * 2, radius * 2);
-		}
+	public int numPoints() { return STEPS; }
+
+	public float getRadius() { return radius; }
+
+	public float getPointX(int i) {
+		updateGeometry();
+		return ptsX[i];
+	}
+
+	public float getPointY(int i) {
+		updateGeometry();
+		return ptsY[i];
 	}
 
+	// the returned points are cached, callers must not modify them
+	public Point2D.Float[] getPoints() {
+		updateGeometry();
+		return pts;
+	}
+
+	// the returned point is cached, callers must not modify it
 	public Point2D.Float nextStart() {
-		Point2D.Float[] pts = getPoints();
-		Point2D.Float last = pts[pts.length - 1];
-	
-		Point2D.Float p2 = displaceByRadius(nextRadius);
-		
-		nextStart = new Point2D.Float();
-		nextStart.x = last.x + p2.x;
-		nextStart.y = last.y + p2.y;
-		
+		updateGeometry();
 		return nextStart;
 	}
+
+	public float getNextStartX() {
+		updateGeometry();
+		return nextStart.x;
+	}
+
+	public float getNextStartY() {
+		updateGeometry();
+		return nextStart.y;
+	}
 	
-	private Point2D.Float displaceByRadius(float r){
+	private void displaceByRadius(float r){
 		
 		float absR1 = Math.abs(radius);
 		float absR2 = Math.abs(r);
 		float t1 = gaugeLength/absR1;
 		float t2 = Params.GAUGE_SPACING/absR2;
 		
-		Point2D.Float displace = new Point2D.Float();
-		
-		if (radius > 0 && r > 0 ){
-			displace.x = (float)( absR2 * Math.sin(t2) * Math.cos(t1) 
-					- absR2 * (1-Math.cos(t2)) * Math.sin(t1) );
-			displace.y = (float)( absR2 * Math.sin(t2) * Math.sin(t1)
-					+ absR2 * (1-Math.cos(t2)) * Math.cos(t1) );
-		}
-		else if (radius > 0 && r < 0){
-			displace.x = (float)( absR2 * Math.sin(t2) * Math.cos(t1) 
-					+ absR2 * (1-Math.cos(t2)) * Math.sin(t1) );
-			displace.y = (float)( absR2 * Math.sin(t2) * Math.sin(t1)
-					- absR2 * (1-Math.cos(t2)) * Math.cos(t1) );
-		}
-		else if (radius < 0 && r > 0){
-			displace.x = (float)( absR2 * Math.sin(t2) * Math.cos(t1) 
-					+ absR2 * (1-Math.cos(t2)) * Math.sin(t1) );
-			displace.y = (float)( - absR2 * Math.sin(t2) * Math.sin(t1)
-					+ absR2 * (1-Math.cos(t2)) * Math.cos(t1) );
-		}
-		else if (radius < 0 && r < 0){
-			displace.x = (float)( absR2 * Math.sin(t2) * Math.cos(t1) 
-					- absR2 * (1-Math.cos(t2)) * Math.sin(t1) );
-			displace.y = (float)( - absR2 * Math.sin(t2) * Math.sin(t1)
-					- absR2 * (1-Math.cos(t2)) * Math.cos(t1) );
+		if ((radius > 0 || radius < 0) && (r > 0 || r < 0)){
+			double sin1 = Math.sin(t1);
+			double cos1 = Math.cos(t1);
+			double along = absR2 * Math.sin(t2);
+			double across = absR2 * (1-Math.cos(t2));
+			float sign1 = (radius > 0) ? 1.0f : -1.0f;
+			float sign2 = (r > 0) ? 1.0f : -1.0f;
+
+			displaceX = (float)( along * cos1 - sign1 * sign2 * across * sin1 );
+			displaceY = (float)( sign1 * along * sin1 + sign2 * across * cos1 );
 		}
 		else{
-			displace.x = 0;
-			displace.y = 0;
+			displaceX = 0;
+			displaceY = 0;
 			System.out.println("Curvature zero!!!");
 		}
-		return displace;
-		
 	}
 	
 	public float nextAngle() {
-		return (float)(gaugeLength/radius + Params.GAUGE_SPACING/nextRadius);
+		updateGeometry();
+		return nextAngle;
 		
 //		float angle = 0;
 //		float t1 = gaugeLength/Math.abs(radius);
@@ -6,6 +6,10 @@ public class StripInfo {
 	public int[] calibration_in_order_1;
 	public String calibration_data_set;
 	public String strip_additional_info;
+	// smoothing of every gauge, see FilterChain.parse(), null for Params.FILTER_CHAIN
+	public String filter_chain;
+	// serial port the strip is attached to, null for Params.SERIAL_PORT
+	public String serial_port;
 	
 	public StripInfo(int[] mapping, float gap_magic, int[] order1, String data_set){
 		strain_gauge_mapping = mapping;
@@ -16,4 +20,10 @@ public class StripInfo {
 	}
 	
 	public void setInfo(String info){ strip_additional_info = info; }
+	
+	public void setFilterChain(String spec){ filter_chain = spec; }
+	
+	public void setSerialPort(String port){ serial_port = port; }
+	
+	public String getSerialPort(){ return serial_port != null ? serial_port : Params.SERIAL_PORT; }
 }
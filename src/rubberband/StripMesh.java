@@ -0,0 +1,136 @@
+package rubberband;
+
+import processing.core.PApplet;
+
+import rubberband.math.CurvatureEngine;
+import rubberband.math.Spline;
+
+/**
+ * The rendered strip surface, kept as one quad strip along the spline
+ * through the resampled points. Vertex positions and colors live in
+ * preallocated buffers that update() overwrites, draw() submits them with a
+ * single beginShape(QUAD_STRIP).
+ *
+ * With a positive tolerance the strip is tessellated adaptively: the step
+ * along the curve is the longest chord whose sagitta stays within tolerance
+ * for the local radius of curvature, clamped to [minStep, maxStep] in spline
+ * parameter. The tolerance is in the units of the spline points, not scaled
+ * to the screen. Straight parts get few vertices, tight bends many, and
+ * bends no wider than the tolerance get minStep.
+ */
+public class StripMesh {
+
+	private final Spline xs;
+	private final Spline ys;
+	private final float minStep;
+	private final float maxStep;
+	private final float tolerance;
+
+	private float[] t, x, y;
+	private int[] color;
+	private int count = 0;
+
+	public StripMesh(int points, float step) {
+		this(points, step, step, 0);
+	}
+
+	public StripMesh(int points, float minStep, float maxStep, float tolerance) {
+		this.minStep = minStep;
+		this.maxStep = Math.max(minStep, maxStep);
+		this.tolerance = tolerance;
+		xs = new Spline(points);
+		ys = new Spline(points);
+		allocate(points);
+	}
+
+	private void allocate(int points) {
+		int capacity = (int) (Math.max(points - 1, 1) / minStep) + 3;
+		t = new float[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		color = new int[capacity];
+	}
+
+	/**
+	 * Rebuilds the mesh along the spline through (px, py), colored by
+	 * interpolating touchColor evenly along the strip.
+	 */
+	public void update(float[] px, float[] py, int[] touchColor) {
+		count = 0;
+		if (px.length < 1)
+			return;
+
+		xs.fit(px);
+		ys.fit(py);
+
+		int numTouch = touchColor.length;
+		float space = PApplet.floor((float)(px.length-1)/(numTouch-1) * 100) ;
+		space = space / 100;
+		float end = space * (numTouch-1);
+
+		if ((int) (end / minStep) + 2 > t.length)
+			allocate(px.length);
+
+		if (tolerance > 0)
+			tessellate(end, space / 4);
+		else {
+			// same accumulation as the old per-quad loop, so samples land on the same t
+			float ti = 0.0f;
+			for (; ti <= end; ti += minStep)
+				t[count++] = ti;
+			t[count++] = ti;
+		}
+
+		xs.calc(t, x, count);
+		ys.calc(t, y, count);
+
+		for (int i = 0; i < count; i++) {
+			float inter = Math.min(t[i] / space, numTouch - 1);
+			int lo = (int) inter;
+			int hi = Math.min(lo + 1, numTouch - 1);
+			color[i] = PApplet.lerpColor(touchColor[lo], touchColor[hi], inter - lo, PApplet.RGB);
+		}
+	}
+
+	// places samples by local curvature, never further apart than a quarter of
+	// a touch sensor so the colors still blend smoothly
+	private void tessellate(float end, float colorStep) {
+		float longest = Math.min(maxStep, Math.max(colorStep, minStep));
+		float ti = 0;
+		t[count++] = ti;
+		while (ti < end) {
+			float dt = longest;
+			float speed = CurvatureEngine.speedAt(xs, ys, ti);
+			float k = Math.abs(CurvatureEngine.curvatureAt(xs, ys, ti));
+			if (speed > 0 && k > 0) {
+				float r = 1 / k;
+				if (tolerance < r) {
+					float chord = 2 * (float) Math.sqrt(2 * r * tolerance - tolerance * tolerance);
+					dt = chord / speed;
+				}
+				else
+					dt = minStep;
+			}
+			if (dt < minStep)
+				dt = minStep;
+			else if (dt > longest)
+				dt = longest;
+			ti = Math.min(ti + dt, end);
+			t[count++] = ti;
+		}
+	}
+
+	public void draw(PApplet pApplet, float width) {
+		if (count < 2)
+			return;
+		pApplet.beginShape(PApplet.QUAD_STRIP);
+		for (int i = 0; i < count; i++) {
+			pApplet.fill(color[i]);
+			pApplet.vertex(x[i], y[i], 0);
+			pApplet.vertex(x[i], y[i], width);
+		}
+		pApplet.endShape();
+	}
+
+	public int vertexCount() { return 2 * count; }
+}
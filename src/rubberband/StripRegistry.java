@@ -0,0 +1,177 @@
+package rubberband;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the reconstruction pipeline of several strips in one process. Every
+ * strip has its own StripInfo, sensor source, frame ring, recorder and
+ * ShapeReconstructionEngine, so strips share no mutable state.
+ *
+ * The pipelines run on a fixed pool of workers. Each strip is one periodic
+ * task that drains its ring, updates its engine and publishes a snapshot;
+ * a task never overlaps with itself, so an engine is only ever touched by
+ * one thread at a time, while different strips are processed in parallel.
+ */
+public class StripRegistry {
+
+	public static class Strip {
+		private final StripInfo info;
+		private final SensorSource source;
+		private final SensorFrameRing frames;
+		private final SessionRecorder recorder;
+		private final ShapeReconstructionEngine engine;
+		private final CoalescePolicy policy;
+
+		// written by the worker, copied out under the lock
+		private final ShapeSnapshot published;
+		private boolean fresh = false;
+		private long processed = 0;
+
+		private Strip(StripInfo info, SensorSource source, CoalescePolicy policy) {
+			this.info = info;
+			this.source = source;
+			this.policy = policy;
+			int numValues = Params.NUM_STRAIN_SENSORS + Params.NUM_TOUCH_SENSORS + Params.NUM_OF_DUMMY;
+			frames = new SensorFrameRing(Params.SENSOR_RING_SIZE, numValues);
+			recorder = new SessionRecorder(numValues, Params.RECORD_QUEUE_SIZE);
+			engine = new ShapeReconstructionEngine(info);
+			published = engine.newSnapshot();
+			source.setCoalescePolicy(policy);
+		}
+
+		// worker thread, one call at a time
+		private void pump() {
+			SensorFrame frame;
+			int received = 0;
+			while ((frame = frames.peek()) != null) {
+				boolean newest = frames.size() == 1;
+				if (newest || policy == CoalescePolicy.EVERY)
+					engine.update(frame);
+				else if (policy == CoalescePolicy.FOLD)
+					engine.sample(frame);
+				frames.release();
+				received++;
+			}
+			if (received == 0)
+				return;
+			engine.reconstruct();
+			synchronized (this) {
+				engine.snapshot(published);
+				fresh = true;
+				processed += received;
+			}
+		}
+
+		/**
+		 * Copies the latest shape into out. Returns false when nothing new has
+		 * been published since the previous call.
+		 */
+		public synchronized boolean latest(ShapeSnapshot out) {
+			out.copyFrom(published);
+			boolean wasFresh = fresh;
+			fresh = false;
+			return wasFresh;
+		}
+
+		public StripInfo getInfo() { return info; }
+
+		public SensorSource getSource() { return source; }
+
+		public SessionRecorder getRecorder() { return recorder; }
+
+		/** Only to be used while the registry is stopped. */
+		public ShapeReconstructionEngine getEngine() { return engine; }
+
+		public ShapeSnapshot newSnapshot() { return engine.newSnapshot(); }
+
+		public long getDroppedFrames() { return frames.getDropped(); }
+	}
+
+	private final List<Strip> strips = new ArrayList<Strip>();
+	private final int workers;
+	private final long periodMicros;
+	private ScheduledExecutorService executor;
+
+	public StripRegistry() {
+		this(Params.STRIP_WORKERS, Params.STRIP_PUMP_PERIOD);
+	}
+
+	/** periodMicros is how often each strip's ring is drained. */
+	public StripRegistry(int workers, long periodMicros) {
+		this.workers = Math.max(workers, 1);
+		this.periodMicros = Math.max(periodMicros, 1);
+	}
+
+	/** Adds a strip, reading its calibration. Strips can only be added before start(). */
+	public synchronized Strip add(StripInfo info, SensorSource source) {
+		if (executor != null)
+			throw new IllegalStateException("strips must be added before start()");
+		Strip strip = new Strip(info, source, Params.COALESCE_POLICY);
+		strips.add(strip);
+		return strip;
+	}
+
+	public synchronized void start() {
+		if (executor != null)
+			return;
+		executor = Executors.newScheduledThreadPool(Math.min(workers, Math.max(strips.size(), 1)),
+				new ThreadFactory() {
+					private int count = 0;
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "StripRegistry-" + count++);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		for (final Strip strip : strips) {
+			strip.source.start(strip.frames, strip.recorder);
+			executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						strip.pump();
+					} catch (RuntimeException e) {
+						// keep the other strips running, and this one on the next frame
+						e.printStackTrace();
+					}
+				}
+			}, 0, periodMicros, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (executor == null)
+			return;
+		for (Strip strip : strips)
+			strip.source.stop();
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+		for (Strip strip : strips)
+			strip.recorder.close();
+	}
+
+	public synchronized int size() { return strips.size(); }
+
+	public synchronized Strip get(int i) { return strips.get(i); }
+
+	/** Frames processed by every strip since start. */
+	public synchronized long getProcessedFrames() {
+		long total = 0;
+		for (Strip strip : strips) {
+			synchronized (strip) {
+				total += strip.processed;
+			}
+		}
+		return total;
+	}
+}
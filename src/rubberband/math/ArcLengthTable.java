@@ -0,0 +1,109 @@
+package rubberband.math;
+
+/**
+ * Cumulative arc length of a planar spline curve, for sampling it at
+ * physically equidistant points instead of evenly spaced parameters.
+ *
+ * build() integrates the speed |(x', y')| with 3 point Gauss-Legendre over
+ * a fixed number of sub-intervals per segment. paramAt() finds the
+ * sub-interval by binary search, interpolates and refines the parameter
+ * with one Newton step, O(log n) per lookup.
+ */
+public class ArcLengthTable {
+
+	// Gauss-Legendre nodes and weights on [-1, 1]
+	private static final float GL_NODE = (float) Math.sqrt(3.0 / 5.0);
+	private static final float GL_W0 = 8.0f / 9.0f;
+	private static final float GL_W1 = 5.0f / 9.0f;
+
+	private final int subdivisions;
+	private float[] param;
+	private float[] length;
+	private int entries = 0;
+
+	private Spline xs, ys;
+
+	public ArcLengthTable(int maxPoints, int subdivisions) {
+		this.subdivisions = subdivisions;
+		allocate(maxPoints);
+	}
+
+	private void allocate(int points) {
+		int size = Math.max(points - 1, 1) * subdivisions + 1;
+		param = new float[size];
+		length = new float[size];
+	}
+
+	public void build(Spline xs, Spline ys) {
+		this.xs = xs;
+		this.ys = ys;
+		int segments = Math.max(xs.size() - 1, 0);
+		int size = segments * subdivisions + 1;
+		if (size > param.length)
+			allocate(xs.size());
+
+		float h = 1.0f / subdivisions;
+		param[0] = 0;
+		length[0] = 0;
+		for (int i = 1; i < size; i++) {
+			float t0 = (i - 1) * h;
+			param[i] = i * h;
+			length[i] = length[i - 1] + integrate(t0, param[i]);
+		}
+		entries = size;
+	}
+
+	private float integrate(float t0, float t1) {
+		float mid = (t0 + t1) / 2;
+		float half = (t1 - t0) / 2;
+		return half * (GL_W0 * speed(mid)
+				+ GL_W1 * (speed(mid - half * GL_NODE) + speed(mid + half * GL_NODE)));
+	}
+
+	private float speed(float t) {
+		return CurvatureEngine.speedAt(xs, ys, t);
+	}
+
+	public float totalLength() {
+		return entries > 0 ? length[entries - 1] : 0;
+	}
+
+	/** Spline parameter at arc length s from the start of the curve. */
+	public float paramAt(float s) {
+		if (entries < 2 || s <= 0)
+			return 0;
+		if (s >= length[entries - 1])
+			return param[entries - 1];
+
+		// last entry with length <= s
+		int lo = 0, hi = entries - 1;
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (length[mid] <= s)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		float span = length[hi] - length[lo];
+		float f = span > 0 ? (s - length[lo]) / span : 0;
+		float t = param[lo] + f * (param[hi] - param[lo]);
+
+		// Newton step on L(t) - s
+		float v = speed(t);
+		if (v > 0) {
+			float refined = t - (length[lo] + integrate(param[lo], t) - s) / v;
+			if (refined >= param[lo] && refined <= param[hi])
+				t = refined;
+		}
+		return t;
+	}
+
+	/** Parameters of count points equally spaced in arc length, ends included. */
+	public void equidistant(int count, float[] tOut) {
+		float total = totalLength();
+		for (int i = 0; i < count; i++)
+			tOut[i] = count > 1 ? paramAt(total * i / (count - 1)) : 0;
+		if (count > 1)
+			tOut[count - 1] = param[entries - 1];
+	}
+}
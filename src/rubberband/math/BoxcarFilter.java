@@ -0,0 +1,23 @@
+package rubberband.math;
+
+/**
+ * Moving average over the last size samples. Starts from a window of zeros,
+ * the way the original StrainGauge smoothing did.
+ */
+public class BoxcarFilter implements SignalFilter {
+
+	private final RingBuffer window;
+
+	public BoxcarFilter(int size) {
+		window = new RingBuffer(size);
+	}
+
+	public double filter(double value, double dt) {
+		window.push(value);
+		return window.mean();
+	}
+
+	public void reset(double value) {
+		window.fill(value);
+	}
+}
@@ -0,0 +1,151 @@
+package rubberband.math;
+
+/**
+ * Samples a planar curve given by two splines and computes its curvature
+ * from the analytic derivatives of the cubic segments:
+ *
+ *   k = (x' y'' - y' x'') / (x'^2 + y'^2)^(3/2)
+ *
+ * Results are written to preallocated structure-of-arrays outputs. The work
+ * is split into passes so that everything after the coefficient gather is a
+ * straight loop over float arrays the JIT can vectorize.
+ */
+public class CurvatureEngine {
+
+	private final int capacity;
+	private int count;
+
+	// outputs, valid for [0, size())
+	public final float[] x, y;
+	public final float[] curvature; // signed, positive turns clockwise on screen
+	public final float[] radius;    // 1 / |curvature|
+	public final float[] level;     // |curvature| re-mapped to [0, 255] over the samples
+
+	// per sample derivatives
+	private final float[] dx, dy, ddx, ddy;
+	// scratch
+	private final float[] t;
+	private final int[] seg;
+	private final float[] dt;
+
+	public CurvatureEngine(int capacity) {
+		this.capacity = capacity;
+		x = new float[capacity];
+		y = new float[capacity];
+		curvature = new float[capacity];
+		radius = new float[capacity];
+		level = new float[capacity];
+		dx = new float[capacity];
+		dy = new float[capacity];
+		ddx = new float[capacity];
+		ddy = new float[capacity];
+		t = new float[capacity];
+		seg = new int[capacity];
+		dt = new float[capacity];
+	}
+
+	/** Samples count points evenly spaced in the spline parameter. */
+	public void sampleUniform(Spline xs, Spline ys, int count) {
+		float step = count > 1 ? (float) (xs.size() - 1) / (count - 1) : 0;
+		for (int i = 0; i < count; i++)
+			t[i] = i * step;
+		sample(xs, ys, t, count);
+	}
+
+	/** Samples the curve at the parameters ts[0..count). */
+	public void sample(Spline xs, Spline ys, float[] ts, int count) {
+		if (count > capacity)
+			throw new IllegalArgumentException("CurvatureEngine holds " + capacity + " samples, asked for " + count);
+		this.count = count;
+
+		// pass 1: segment index and local parameter, the end point is taken
+		// from the last segment so its derivatives are defined
+		int last = lastSegment(xs);
+		for (int i = 0; i < count; i++) {
+			float ti = ts[i];
+			int j = (int) Math.floor(ti);
+			if (j < 0)
+				j = 0;
+			else if (j > last)
+				j = last;
+			seg[i] = j;
+			dt[i] = ti - j;
+		}
+
+		// pass 2: gather coefficients, position and derivatives
+		gather(xs, x, dx, ddx);
+		gather(ys, y, dy, ddy);
+
+		// pass 3: curvature, pure arithmetic over the arrays
+		for (int i = 0; i < count; i++) {
+			float s = dx[i] * dx[i] + dy[i] * dy[i];
+			float k = (dx[i] * ddy[i] - dy[i] * ddx[i]) / (s * (float) Math.sqrt(s));
+			curvature[i] = k;
+			radius[i] = 1 / Math.abs(k);
+		}
+
+		// pass 4: re-map |curvature| to 0-255
+		float min = Float.MAX_VALUE;
+		float max = 0;
+		for (int i = 0; i < count; i++) {
+			float k = Math.abs(curvature[i]);
+			if (k > max)
+				max = k;
+			if (k < min)
+				min = k;
+		}
+		float scale = max > min ? 255 / (max - min) : 0;
+		for (int i = 0; i < count; i++)
+			level[i] = (Math.abs(curvature[i]) - min) * scale;
+	}
+
+	private void gather(Spline sp, float[] p, float[] d1, float[] d2) {
+		float[] a = sp.a, b = sp.b, c = sp.c, d = sp.d;
+		for (int i = 0; i < count; i++) {
+			int j = seg[i];
+			float u = dt[i];
+			p[i] = a[j] + (b[j] + (c[j] + d[j] * u) * u) * u;
+			d1[i] = b[j] + (2 * c[j] + 3 * d[j] * u) * u;
+			d2[i] = 2 * c[j] + 6 * d[j] * u;
+		}
+	}
+
+	/** Signed curvature of the curve at a single parameter. */
+	public static float curvatureAt(Spline xs, Spline ys, float ti) {
+		int j = (int) Math.floor(ti);
+		int last = lastSegment(xs);
+		if (j < 0)
+			j = 0;
+		else if (j > last)
+			j = last;
+		float u = ti - j;
+		float x1 = xs.b[j] + (2 * xs.c[j] + 3 * xs.d[j] * u) * u;
+		float y1 = ys.b[j] + (2 * ys.c[j] + 3 * ys.d[j] * u) * u;
+		float x2 = 2 * xs.c[j] + 6 * xs.d[j] * u;
+		float y2 = 2 * ys.c[j] + 6 * ys.d[j] * u;
+		float s = x1 * x1 + y1 * y1;
+		return (x1 * y2 - y1 * x2) / (s * (float) Math.sqrt(s));
+	}
+
+	/** Speed |(x', y')| of the curve at a single parameter. */
+	public static float speedAt(Spline xs, Spline ys, float ti) {
+		int j = (int) Math.floor(ti);
+		int last = lastSegment(xs);
+		if (j < 0)
+			j = 0;
+		else if (j > last)
+			j = last;
+		float u = ti - j;
+		float x1 = xs.b[j] + (2 * xs.c[j] + 3 * xs.d[j] * u) * u;
+		float y1 = ys.b[j] + (2 * ys.c[j] + 3 * ys.d[j] * u) * u;
+		return (float) Math.sqrt(x1 * x1 + y1 * y1);
+	}
+
+	private static int lastSegment(Spline sp) {
+		return Math.max(sp.size() - 2, 0);
+	}
+
+	public int size() { return count; }
+
+	public int capacity() { return capacity; }
+}
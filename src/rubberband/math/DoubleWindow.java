@@ -0,0 +1,15 @@
+package rubberband.math;
+
+/**
+ * Read-only view of a fixed size window of samples, index 0 is the oldest
+ * sample and size()-1 the newest.
+ */
+public interface DoubleWindow {
+
+	public double get(int i);
+
+	public int size();
+
+	/** Total number of samples ever pushed, used to find what is new. */
+	public long getPushCount();
+}
@@ -0,0 +1,31 @@
+package rubberband.math;
+
+/**
+ * Exponential moving average, y += alpha * (x - y).
+ */
+public class EmaFilter implements SignalFilter {
+
+	private final double alpha;
+	private double y;
+	private boolean primed = false;
+
+	public EmaFilter(double alpha) {
+		if (alpha <= 0 || alpha > 1)
+			throw new IllegalArgumentException("EMA alpha must be in (0, 1]");
+		this.alpha = alpha;
+	}
+
+	public double filter(double value, double dt) {
+		if (!primed) {
+			reset(value);
+			return y;
+		}
+		y += alpha * (value - y);
+		return y;
+	}
+
+	public void reset(double value) {
+		y = value;
+		primed = true;
+	}
+}
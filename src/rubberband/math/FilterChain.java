@@ -0,0 +1,67 @@
+package rubberband.math;
+
+/**
+ * Runs a sample through several filters in order.
+ */
+public class FilterChain implements SignalFilter {
+
+	private final SignalFilter[] filters;
+
+	public FilterChain(SignalFilter[] filters) {
+		this.filters = filters;
+	}
+
+	public double filter(double value, double dt) {
+		for (int i = 0; i < filters.length; i++)
+			value = filters[i].filter(value, dt);
+		return value;
+	}
+
+	public void reset(double value) {
+		for (int i = 0; i < filters.length; i++)
+			filters[i].reset(value);
+	}
+
+	public int length() { return filters.length; }
+
+	/**
+	 * Builds a chain from a comma separated spec, each stage is a name
+	 * followed by colon separated parameters:
+	 * 
+	 *   boxcar:size, median:size, ema:alpha,
+	 *   oneeuro:minCutoff:beta[:dCutoff], kalman:q:r
+	 * 
+	 * e.g. "median:3,oneeuro:1.0:0.01". An empty spec passes samples through.
+	 */
+	public static FilterChain parse(String spec) {
+		if (spec == null || spec.trim().length() == 0)
+			return new FilterChain(new SignalFilter[0]);
+
+		String[] stages = spec.split(",");
+		SignalFilter[] filters = new SignalFilter[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			String[] p = stages[i].trim().split(":");
+			String name = p[0].trim().toLowerCase();
+			try {
+				if (name.equals("boxcar"))
+					filters[i] = new BoxcarFilter(Integer.parseInt(p[1]));
+				else if (name.equals("median"))
+					filters[i] = new MedianFilter(Integer.parseInt(p[1]));
+				else if (name.equals("ema"))
+					filters[i] = new EmaFilter(Double.parseDouble(p[1]));
+				else if (name.equals("oneeuro"))
+					filters[i] = new OneEuroFilter(Double.parseDouble(p[1]),
+							Double.parseDouble(p[2]),
+							p.length > 3 ? Double.parseDouble(p[3]) : 1.0);
+				else if (name.equals("kalman"))
+					filters[i] = new KalmanFilter(Double.parseDouble(p[1]),
+							Double.parseDouble(p[2]));
+				else
+					throw new IllegalArgumentException("unknown filter '" + name + "' in " + spec);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("missing parameter for '" + name + "' in " + spec);
+			}
+		}
+		return new FilterChain(filters);
+	}
+}
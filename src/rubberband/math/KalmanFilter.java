@@ -0,0 +1,42 @@
+package rubberband.math;
+
+/**
+ * Scalar Kalman filter for a random walk: q is the process noise per second,
+ * r the measurement noise variance.
+ */
+public class KalmanFilter implements SignalFilter {
+
+	private final double q;
+	private final double r;
+
+	private double x;
+	private double p;
+	private boolean primed = false;
+
+	public KalmanFilter(double q, double r) {
+		if (q < 0 || r <= 0)
+			throw new IllegalArgumentException("Kalman noise must be positive");
+		this.q = q;
+		this.r = r;
+	}
+
+	public double filter(double value, double dt) {
+		if (!primed) {
+			reset(value);
+			return x;
+		}
+		// predict
+		p += q * dt;
+		// correct
+		double k = p / (p + r);
+		x += k * (value - x);
+		p *= 1 - k;
+		return x;
+	}
+
+	public void reset(double value) {
+		x = value;
+		p = r;
+		primed = true;
+	}
+}
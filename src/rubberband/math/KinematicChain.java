@@ -0,0 +1,104 @@
+package rubberband.math;
+
+/**
+ * Forward kinematics of the strip as a chain of rigid segments. Each segment
+ * is described in its own frame by the point sampled for the spline and the
+ * offset and rotation that lead to the start of the next segment:
+ *
+ *   pose[i+1] = pose[i] * translate(step[i]) * rotate(turn[i])
+ *
+ * which is the same transform stack draw() used to build with translate() and
+ * rotate(). Poses are cached, and solve() only recomputes the segments
+ * downstream of the first one whose local geometry changed.
+ */
+public class KinematicChain {
+
+	private final int n;
+
+	// local geometry of each segment
+	private final float[] sampleX, sampleY;
+	private final float[] stepX, stepY, turn;
+
+	// world pose at the start of each segment, index n is the end of the strip
+	private final float[] poseX, poseY, poseAngle;
+	private final float[] poseCos, poseSin;
+
+	// world position of the samples, index n is the end of the strip
+	private final float[] pointX, pointY;
+
+	private int dirtyFrom = 0;
+
+	public KinematicChain(int segments) {
+		n = segments;
+		sampleX = new float[n];
+		sampleY = new float[n];
+		stepX = new float[n];
+		stepY = new float[n];
+		turn = new float[n];
+		poseX = new float[n + 1];
+		poseY = new float[n + 1];
+		poseAngle = new float[n + 1];
+		poseCos = new float[n + 1];
+		poseSin = new float[n + 1];
+		pointX = new float[n + 1];
+		pointY = new float[n + 1];
+		poseCos[0] = 1;
+	}
+
+	public void setSegment(int i, float sx, float sy, float dx, float dy, float angle) {
+		if (sampleX[i] == sx && sampleY[i] == sy && stepX[i] == dx
+				&& stepY[i] == dy && turn[i] == angle)
+			return;
+		sampleX[i] = sx;
+		sampleY[i] = sy;
+		stepX[i] = dx;
+		stepY[i] = dy;
+		turn[i] = angle;
+		if (i < dirtyFrom)
+			dirtyFrom = i;
+	}
+
+	/**
+	 * Brings the poses up to date. Returns false when nothing changed since
+	 * the last call.
+	 */
+	public boolean solve() {
+		if (dirtyFrom >= n)
+			return false;
+		for (int i = dirtyFrom; i < n; i++) {
+			float c = poseCos[i];
+			float s = poseSin[i];
+			float x = poseX[i];
+			float y = poseY[i];
+
+			pointX[i] = x + c * sampleX[i] - s * sampleY[i];
+			pointY[i] = y + s * sampleX[i] + c * sampleY[i];
+
+			float a = poseAngle[i] + turn[i];
+			poseX[i + 1] = x + c * stepX[i] - s * stepY[i];
+			poseY[i + 1] = y + s * stepX[i] + c * stepY[i];
+			poseAngle[i + 1] = a;
+			poseCos[i + 1] = (float) Math.cos(a);
+			poseSin[i + 1] = (float) Math.sin(a);
+		}
+		pointX[n] = poseX[n];
+		pointY[n] = poseY[n];
+		dirtyFrom = n;
+		return true;
+	}
+
+	public int segments() { return n; }
+
+	public float getPoseX(int i) { return poseX[i]; }
+
+	public float getPoseY(int i) { return poseY[i]; }
+
+	public float getPoseAngle(int i) { return poseAngle[i]; }
+
+	// the arrays below are owned by the chain, callers must not modify them
+
+	/** Spline control points, segments() + 1 entries. */
+	public float[] getPointX() { return pointX; }
+
+	public float[] getPointY() { return pointY; }
+}
@@ -3,105 +3,211 @@ package rubberband.math;
 
 //LeastSquareFit.java
 //
-//Given a set of pairs x[i], y[i] for y[i]=F(x[i]) i=0,n-1
-//Find the least square fit polynomial coefficients c[i]
-//of polynomial P(x)=c[0]+c[1]*x+c[2]*x^3+c[3]*x^3+...
-//that minimize sum( (y[i]-P(x[i]))^2 )
+//Given a set of pairs x[i], y[i] for y[i]=F(x[i]) i=0,n-1, and optionally
+//weights w[i], find the least square fit polynomial coefficients c[i]
+//of polynomial P(x)=c[0]+c[1]*t+c[2]*t^2+c[3]*t^3+...
+//with t=(x-shift)*scale, that minimize sum( w[i]*(y[i]-P(x[i]))^2 )
 //
-//Method: build matrix A, vector Y and solve for vector C
-//A*C=Y  where all sum's are over i=0,n-1 the x,y points
-//r is the order of the approximating polynomial, max(r)=n
+//Method: shift and scale maps the range of the x's onto [-1, 1], which keeps
+//the powers of raw ADC values in the hundreds from swamping each other. The
+//rows sqrt(w[i])*(1, t[i], t[i]^2, ..., t[i]^r) form matrix A, which is
+//reduced to R by Householder reflections applied to the vector
+//sqrt(w[i])*y[i] as well, and C is found by back substitution of R*C=Q^T*Y.
+//This never forms A^T*A, whose condition number is the square of A's.
 //
-//  | sum(1.0)      sum(x[i]^1) sum(x[i]^2)   ... sum(x[i]^r-1)  |
-//  | sum(x[i]^1)   sum(x[i]^2) sum(x[i]^3)   ... sum(x[i]^r)    |
-//A = | sum(x[i]^2)   sum(x[i]^3) sum(x[i]^4)   ... sum(x[i]^r+1   |
-//  | ...           ...         ...           ... ...            |
-//  | sum(x[i]^r-1) sum(x[i]^r) sum(x[i]^r+1) ... sum(x[i]^2r-1) |
+//r is the order of the approximating polynomial, max(r)=n-1. When the x's
+//can't determine all r+1 coefficients (too few distinct x's, zero weights)
+//the fit throws an ArithmeticException.
 //
-//  | sum(y[i])            |
-//  | sum(x[i]^1 * y[i])   |
-//Y = | sum(x[i]^2 * y[i])   |
-//  | ...                  |
-//  | sum(x[i]^r-1 * y[i]) |
+//fit() refits in place using a caller-provided Workspace, so a calibration
+//can be repeated without allocating.
 
 public strictfp class LeastSquareFit {
-	double c[]; // the coefficients of the fit
+	// a column of R smaller than this, relative to the column of A it came
+	// from, is a linear combination of the previous columns
+	static final double RANK_TOLERANCE = 1e-12;
+
+	/** Scratch space for fits of up to points x order. */
+	public static final class Workspace {
+		final int points, terms;
+		final double[] a;     // design matrix, column major, overwritten by R and the reflectors
+		final double[] b;     // right hand side, overwritten by Q^T*b
+		final double[] norms; // column norms of the design matrix
+		final double[] inverse;
+		int rows, cols;       // of the last fit
+
+		public Workspace(int points, int order) {
+			this.points = points;
+			terms = order + 1;
+			a = new double[points * terms];
+			b = new double[points];
+			norms = new double[terms];
+			inverse = new double[terms * terms];
+		}
+
+		/**
+		 * Writes (A^T*W*A)^-1 of the last fit into p, row major with as many
+		 * rows as the fit has coefficients. Scaled by the residual variance
+		 * this is the covariance of the coefficients, which is how a
+		 * RecursiveLeastSquares continues the fit.
+		 */
+		public void covariance(double[] p) {
+			int m = cols;
+			// R^-1, upper triangular like R = a[j * rows + i] for i <= j
+			for (int j = 0; j < m; j++) {
+				for (int i = j + 1; i < m; i++)
+					inverse[i * m + j] = 0;
+				inverse[j * m + j] = 1 / a[j * rows + j];
+				for (int i = j - 1; i >= 0; i--) {
+					double sum = 0;
+					for (int k = i + 1; k <= j; k++)
+						sum += a[k * rows + i] * inverse[k * m + j];
+					inverse[i * m + j] = -sum / a[i * rows + i];
+				}
+			}
+			// (R^T*R)^-1 = R^-1 * R^-T
+			for (int i = 0; i < m; i++) {
+				for (int j = i; j < m; j++) {
+					double sum = 0;
+					for (int k = j; k < m; k++)
+						sum += inverse[i * m + k] * inverse[j * m + k];
+					p[i * m + j] = sum;
+					p[j * m + i] = sum;
+				}
+			}
+		}
+	}
+
+	double c[]; // the coefficients of the fit, in powers of t
+	double shift = 0, scale = 1;
 
 	public LeastSquareFit(double x[], double y[]) // constructs c's
 	{
-		int n = x.length;
-		c = new double[n + 1];
-		if (y.length != n) {
-			System.out.println("Error in L.S.Fit inconsistent lengths.");
-		}
-		LSFit(x, y, n);
+		this(x, y, x.length - 1);
 	}
 
 	public LeastSquareFit(double x[], double y[], int order) // constructs c's
 	{
 		int n = x.length;
-		if (y.length != n) {
-			System.out.println("Error in L.S.Fit inconsistent lengths.");
-		}
-		if (order > n)
-			order = n; // local copy of order
+		if (y.length != n)
+			throw new IllegalArgumentException("Error in L.S.Fit inconsistent lengths.");
+		if (order > n - 1)
+			order = n - 1; // local copy of order
 		c = new double[order + 1];
-		LSFit(x, y, order);
+		fit(x, y, null, n, new Workspace(n, order));
 	}
 
-	private void LSFit(double x[], double y[], int order) {
-		int n = x.length;
-		double A[][] = new double[order + 1][order + 1];
-		A[0][0] = (double) n;
-		double Y[] = new double[order + 1];
-		Y[0] = vecSum(y);
-		double XP[] = new double[n];
-		double sum;
-		int i;
+	/** An unfitted polynomial of the given order, to be set by fit(). */
+	public LeastSquareFit(int order) {
+		c = new double[order + 1];
+	}
 
-		Matrix.copy(x, XP);
-		for (int k = 0; k <= 2 * order - 1; k++) {
-			if (k < order) // compute Y[k+1]
-			{
-				sum = 0.0;
-				for (int j = 0; j < n; j++) {
-					sum = sum + XP[j] * y[j];
-				}
-				Y[k + 1] = sum;
+	public int getOrder() { return c.length - 1; }
+
+	/**
+	 * Fits the first n points, with weights w or all weights 1 if w is null.
+	 * The coefficients are only changed when the fit succeeds.
+	 */
+	public void fit(double x[], double y[], double w[], int n, Workspace ws) {
+		int terms = c.length;
+		if (n > ws.points || terms > ws.terms)
+			throw new IllegalArgumentException("Workspace for " + ws.points + " points, order "
+					+ (ws.terms - 1) + " too small for " + n + ", order " + (terms - 1));
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			min = Math.min(min, x[i]);
+			max = Math.max(max, x[i]);
+		}
+		double shift = (min + max) / 2;
+		double scale = max > min ? 2 / (max - min) : 1;
+
+		double[] a = ws.a, b = ws.b;
+		for (int i = 0; i < n; i++) {
+			double sw = 1;
+			if (w != null) {
+				if (!(w[i] >= 0))
+					throw new IllegalArgumentException("Error in L.S.Fit negative weight " + w[i]);
+				sw = Math.sqrt(w[i]);
 			}
-			sum = vecSum(XP);
-			int ii = Math.max(0, k - order + 1);
-			int jj = Math.min(k + 1, order);
-			for (int ij = 0; ij < k + 2; ij++) {
-				A[ii][jj] = sum;
-				ii++;
-				jj--;
-				if (ii > order || jj < 0)
-					break;
+			double t = (x[i] - shift) * scale, tp = sw;
+			for (int j = 0; j < terms; j++) {
+				a[j * n + i] = tp;
+				tp *= t;
 			}
-			for (int j = 0; j < n; j++)
-				XP[j] = XP[j] * x[j];
+			b[i] = sw * y[i];
 		}
-		Matrix.solve(A, Y, c);
+		for (int j = 0; j < terms; j++) {
+			double sum = 0;
+			for (int i = 0, col = j * n; i < n; i++)
+				sum += a[col + i] * a[col + i];
+			ws.norms[j] = Math.sqrt(sum);
+		}
+
+		// Householder QR, column k of R ends up above the diagonal of column k
+		// and the reflector v below it, with its first element at the diagonal
+		for (int k = 0; k < terms; k++) {
+			int col = k * n;
+			double sum = 0;
+			for (int i = k; i < n; i++)
+				sum += a[col + i] * a[col + i];
+			double norm = Math.sqrt(sum);
+			if (!(norm > RANK_TOLERANCE * ws.norms[k]) || norm == 0)
+				throw new ArithmeticException("L.S.Fit is rank deficient, " + n
+						+ " points don't determine " + terms + " coefficients");
+			double akk = a[col + k];
+			double alpha = akk > 0 ? -norm : norm;
+			double v0 = akk - alpha;
+			double vv = sum - akk * akk + v0 * v0; // |v|^2
+			a[col + k] = v0;
+			for (int j = k + 1; j < terms; j++)
+				reflect(a, col, k, n, vv, a, j * n);
+			reflect(a, col, k, n, vv, b, 0);
+			a[col + k] = alpha; // R[k][k], v0 is no longer needed
+		}
+
+		for (int k = terms - 1; k >= 0; k--) {
+			double sum = b[k];
+			for (int j = k + 1; j < terms; j++)
+				sum -= a[j * n + k] * b[j];
+			b[k] = sum / a[k * n + k];
+		}
+		System.arraycopy(b, 0, c, 0, terms);
+		ws.rows = n;
+		ws.cols = terms;
+		this.shift = shift;
+		this.scale = scale;
+	}
+
+	// applies I - 2vv^T/|v|^2 to rows k..n-1 of the column starting at dst[off]
+	private static void reflect(double[] v, int vOff, int k, int n, double vv, double[] dst, int off) {
+		double s = 0;
+		for (int i = k; i < n; i++)
+			s += v[vOff + i] * dst[off + i];
+		double f = 2 * s / vv;
+		for (int i = k; i < n; i++)
+			dst[off + i] -= f * v[vOff + i];
 	}
 
 	public double evaluate(double x) {
+		double t = (x - shift) * scale;
 		int n = c.length;
 		double val = c[n - 1];
 		for (int i = n - 2; i >= 0; i--)
-			val = c[i] + x * val;
+			val = c[i] + t * val;
 		return val;
 	}
 
 	public double integrate(double xmin, double xmax) {
+		double tmin = (xmin - shift) * scale;
+		double tmax = (xmax - shift) * scale;
 		int n = c.length;
-		double sumMin = c[n - 1] * xmin / (double) n;
-		double sumMax = c[n - 1] * xmax / (double) n;
+		double sumMin = c[n - 1] / (double) n;
+		double sumMax = c[n - 1] / (double) n;
 		for (int i = n - 2; i >= 0; i--) {
-			sumMin = c[i] / (double) (i + 1) + xmin * sumMin;
-			sumMax = c[i] / (double) (i + 1) + xmax * sumMax;
+			sumMin = c[i] / (double) (i + 1) + tmin * sumMin;
+			sumMax = c[i] / (double) (i + 1) + tmax * sumMax;
 		}
-		return sumMax * xmax - sumMin * xmin;
+		return (sumMax * tmax - sumMin * tmin) / scale;
 	}
 
 	static double vecSum(double x[]) {
@@ -122,7 +228,7 @@ public strictfp class LeastSquareFit {
 		
 		LeastSquareFit LSF = new LeastSquareFit(x, y); // run test on class
 		// measure error at given points
-		System.out.println("20th order fit of 20 points");
+		System.out.println("19th order fit of 20 points");
 		double Y[] = new double[n];
 		double y_est;
 		System.out.println("at given points: x[i], y[i], P(x[i])");
@@ -189,7 +295,7 @@ public strictfp class LeastSquareFit {
 		
 		LeastSquareFit LSF = new LeastSquareFit(x, y); // run test on class
 		// measure error at given points
-		System.out.println("20th order fit of 20 points");
+		System.out.println("19th order fit of 20 points");
 		double Y[] = new double[n];
 		double y_est;
 		System.out.println("at given points: x[i], y[i], P(x[i])");
@@ -263,5 +369,35 @@ public strictfp class LeastSquareFit {
 		System.out.println("integral = " + LSF.integrate(0.0, 1.9) + "  exact="
 				+ (-Math.cos(1.9) + Math.cos(0.0)));
 		System.out.println();
+
+		// a weighted point is the same as replicating it
+		System.out.println("Weight 200 on (0, 0) versus 200 replicated zeros, order 2");
+		double xr[] = new double[] { 0, 673.290, 684.805, 710.265, 727.550, 742.515, 814.545, 844.690 };
+		double yr[] = new double[xr.length];
+		double wr[] = new double[xr.length];
+		for (int i = 1; i < xr.length; i++) {
+			yr[i] = 0.02 * (xr[i] - 673) + 1e-4 * (xr[i] - 673) * (xr[i] - 673) + Math.sin(i);
+			wr[i] = 1;
+		}
+		wr[0] = 200;
+		double xz[] = new double[xr.length + 199];
+		double yz[] = new double[xz.length];
+		System.arraycopy(xr, 0, xz, 199, xr.length);
+		System.arraycopy(yr, 0, yz, 199, yr.length);
+		LeastSquareFit weighted = new LeastSquareFit(2);
+		weighted.fit(xr, yr, wr, xr.length, new Workspace(xr.length, 2));
+		LeastSquareFit replicated = new LeastSquareFit(xz, yz, 2);
+		double maxDiff = 0;
+		for (double v = 0; v <= 1023; v += 1)
+			maxDiff = Math.max(maxDiff, Math.abs(weighted.evaluate(v) - replicated.evaluate(v)));
+		System.out.println("max difference over 0..1023 = " + maxDiff);
+
+		try {
+			new LeastSquareFit(new double[] { 1, 1, 1 }, new double[] { 1, 2, 3 }, 1);
+			System.out.println("rank deficient fit not detected");
+		} catch (ArithmeticException e) {
+			System.out.println("rank deficient fit: " + e.getMessage());
+		}
+		System.out.println();
 	} // end main
 } // end class LeastSquareFit
\ No newline at end of file
@@ -0,0 +1,62 @@
+package rubberband.math;
+
+/**
+ * A function tabulated at evenly spaced points of [min, max] and evaluated by
+ * linear interpolation. Arguments outside the table, and cells where the
+ * function changes sign or isn't finite at either end (a pole or a branch
+ * switch lies inside), are passed to the function itself, so the table never
+ * interpolates across a discontinuity.
+ */
+public class LookupTable {
+
+	public interface Function {
+		double evaluate(double x);
+	}
+
+	private final double min;
+	private final double step;
+	private final double invStep;
+	private final double[] values;
+	private final boolean[] exact; // cell i spans [i, i+1]
+	private Function function;
+
+	public LookupTable(double min, double max, int size) {
+		if (size < 2 || !(max > min))
+			throw new IllegalArgumentException("LookupTable needs two points and max > min");
+		this.min = min;
+		step = (max - min) / (size - 1);
+		invStep = 1 / step;
+		values = new double[size];
+		exact = new boolean[size - 1];
+	}
+
+	/** Tabulates f, which is also used for the arguments the table can't cover. */
+	public void build(Function f) {
+		function = f;
+		for (int i = 0; i < values.length; i++)
+			values[i] = f.evaluate(min + i * step);
+		for (int i = 0; i < exact.length; i++) {
+			double a = values[i], b = values[i + 1];
+			exact[i] = Double.isNaN(a) || Double.isNaN(b) || Double.isInfinite(a)
+					|| Double.isInfinite(b) || (a < 0) != (b < 0);
+		}
+	}
+
+	public double evaluate(double x) {
+		double p = (x - min) * invStep;
+		// also false for NaN
+		if (!(p >= 0 && p < exact.length))
+			return function.evaluate(x);
+		int i = (int) p;
+		if (exact[i])
+			return function.evaluate(x);
+		double a = values[i];
+		return a + (p - i) * (values[i + 1] - a);
+	}
+
+	public boolean isBuilt() { return function != null; }
+
+	public double getMin() { return min; }
+
+	public double getMax() { return min + step * exact.length; }
+}
@@ -0,0 +1,69 @@
+package rubberband.math;
+
+/**
+ * Running median over the last size samples. A sorted copy of the window is
+ * kept up to date by removing the outgoing and inserting the incoming sample,
+ * O(size) per sample and no allocation.
+ */
+public class MedianFilter implements SignalFilter {
+
+	private final double[] window; // arrival order
+	private final double[] sorted;
+	private int head = 0;
+	private boolean primed = false;
+
+	public MedianFilter(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("median size must be positive");
+		window = new double[size];
+		sorted = new double[size];
+	}
+
+	public double filter(double value, double dt) {
+		if (!primed)
+			reset(value);
+
+		double old = window[head];
+		window[head] = value;
+		head++;
+		if (head == window.length)
+			head = 0;
+
+		int n = sorted.length;
+		// remove the outgoing sample
+		int i = indexOf(old);
+		System.arraycopy(sorted, i + 1, sorted, i, n - 1 - i);
+		// insert the incoming one
+		int j = n - 1;
+		while (j > 0 && sorted[j - 1] > value) {
+			sorted[j] = sorted[j - 1];
+			j--;
+		}
+		sorted[j] = value;
+
+		if ((n & 1) == 1)
+			return sorted[n / 2];
+		return (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+	}
+
+	private int indexOf(double v) {
+		int lo = 0, hi = sorted.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < v)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public void reset(double value) {
+		for (int i = 0; i < window.length; i++) {
+			window[i] = value;
+			sorted[i] = value;
+		}
+		head = 0;
+		primed = true;
+	}
+}
@@ -0,0 +1,49 @@
+package rubberband.math;
+
+/**
+ * One euro filter (Casiez et al. 2012): a low-pass whose cutoff rises with
+ * the speed of the signal, little smoothing while bending and heavy smoothing
+ * while the strip is still.
+ */
+public class OneEuroFilter implements SignalFilter {
+
+	private final double minCutoff;
+	private final double beta;
+	private final double dCutoff;
+
+	private double x, dx;
+	private boolean primed = false;
+
+	public OneEuroFilter(double minCutoff, double beta, double dCutoff) {
+		if (minCutoff <= 0 || dCutoff <= 0)
+			throw new IllegalArgumentException("one euro cutoffs must be positive");
+		this.minCutoff = minCutoff;
+		this.beta = beta;
+		this.dCutoff = dCutoff;
+	}
+
+	public double filter(double value, double dt) {
+		if (!primed || dt <= 0) {
+			if (!primed)
+				reset(value);
+			return x;
+		}
+		double edx = (value - x) / dt;
+		dx += alpha(dCutoff, dt) * (edx - dx);
+
+		double cutoff = minCutoff + beta * Math.abs(dx);
+		x += alpha(cutoff, dt) * (value - x);
+		return x;
+	}
+
+	private static double alpha(double cutoff, double dt) {
+		double tau = 1.0 / (2 * Math.PI * cutoff);
+		return 1.0 / (1.0 + tau / dt);
+	}
+
+	public void reset(double value) {
+		x = value;
+		dx = 0;
+		primed = true;
+	}
+}
@@ -0,0 +1,104 @@
+package rubberband.math;
+
+/**
+ * Continues a LeastSquareFit one sample at a time. Every update() moves the
+ * coefficients of the fit towards the new sample in O(order^2), using the
+ * inverse of the information matrix the fit has accumulated so far, and
+ * discounts older samples by the forgetting factor so the fit can follow a
+ * slowly drifting sensor. The shift and scale of the fit stay fixed.
+ *
+ * The covariance starts from the batch fit's (see Workspace.covariance()),
+ * so a new sample weighs as much as one of the original points. Samples that
+ * only cover part of the range let the covariance grow in the directions they
+ * don't excite, reference shapes should therefore vary.
+ */
+public class RecursiveLeastSquares {
+
+	private final LeastSquareFit fit;
+	private final double[] reference; // coefficients the drift is measured from
+	private final double[] p;         // covariance, row major
+	private final double[] phi;
+	private final double[] pphi;
+	private final double forgetting;
+	private final double smoothing;
+
+	private double meanSquare = 0;
+	private long samples = 0;
+
+	/**
+	 * forgetting in (0, 1] is the weight left to a sample after the next one,
+	 * smoothing in (0, 1] the weight of a new residual in the residual average.
+	 */
+	public RecursiveLeastSquares(LeastSquareFit fit, double[] covariance, double forgetting, double smoothing) {
+		int terms = fit.c.length;
+		if (covariance.length != terms * terms)
+			throw new IllegalArgumentException("covariance of " + covariance.length
+					+ " entries for " + terms + " coefficients");
+		if (!(forgetting > 0 && forgetting <= 1) || !(smoothing > 0 && smoothing <= 1))
+			throw new IllegalArgumentException("forgetting and smoothing must be in (0, 1]");
+		this.fit = fit;
+		this.forgetting = forgetting;
+		this.smoothing = smoothing;
+		reference = fit.c.clone();
+		p = covariance.clone();
+		phi = new double[terms];
+		pphi = new double[terms];
+	}
+
+	/** Adds the sample y = F(x) and returns its residual before the update. */
+	public double update(double x, double y) {
+		double[] c = fit.c;
+		int m = c.length;
+		double t = (x - fit.shift) * fit.scale, tp = 1;
+		double e = y;
+		for (int j = 0; j < m; j++) {
+			phi[j] = tp;
+			e -= c[j] * tp;
+			tp *= t;
+		}
+		double denom = forgetting;
+		for (int i = 0; i < m; i++) {
+			double sum = 0;
+			for (int j = 0; j < m; j++)
+				sum += p[i * m + j] * phi[j];
+			pphi[i] = sum;
+			denom += phi[i] * sum;
+		}
+		if (!(e == e) || !(denom > 0) || Double.isInfinite(denom))
+			return e;
+
+		// gain is P*phi / denom, P = (P - gain * (P*phi)^T) / forgetting
+		for (int i = 0; i < m; i++) {
+			c[i] += pphi[i] / denom * e;
+			for (int j = i; j < m; j++) {
+				double v = (p[i * m + j] - pphi[i] * pphi[j] / denom) / forgetting;
+				p[i * m + j] = v;
+				p[j * m + i] = v;
+			}
+		}
+
+		meanSquare = samples == 0 ? e * e : meanSquare + smoothing * (e * e - meanSquare);
+		samples++;
+		return e;
+	}
+
+	/** Exponentially weighted RMS of the residuals before each update. */
+	public double getResidual() { return Math.sqrt(meanSquare); }
+
+	/**
+	 * Sum of the absolute coefficient changes since construction. As the
+	 * coefficients are in powers of t in [-1, 1], this bounds how far the fit
+	 * has moved anywhere in its original range.
+	 */
+	public double getDrift() {
+		double[] c = fit.c;
+		double drift = 0;
+		for (int i = 0; i < c.length; i++)
+			drift += Math.abs(c[i] - reference[i]);
+		return drift;
+	}
+
+	public long getSamples() { return samples; }
+
+	public LeastSquareFit getFit() { return fit; }
+}
@@ -0,0 +1,66 @@
+package rubberband.math;
+
+/**
+ * Fixed size circular buffer of doubles with an O(1) running sum. The buffer
+ * starts full of zeros, every push() replaces the oldest sample.
+ */
+public class RingBuffer implements DoubleWindow {
+
+	private final double[] data;
+	private int head = 0; // index of the oldest sample
+	private double sum = 0;
+	private int sinceResum = 0;
+	private long pushCount = 0;
+
+	public RingBuffer(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("RingBuffer size must be positive");
+		data = new double[size];
+	}
+
+	public void push(double value) {
+		double old = data[head];
+		data[head] = value;
+		head++;
+		if (head == data.length)
+			head = 0;
+		pushCount++;
+
+		// re-sum once per lap so rounding error of the running sum can't build up
+		if (++sinceResum == data.length) {
+			sinceResum = 0;
+			double s = 0;
+			for (int i = 0; i < data.length; i++)
+				s += data[i];
+			sum = s;
+		} else {
+			sum += value - old;
+		}
+	}
+
+	public double get(int i) {
+		int k = head + i;
+		if (k >= data.length)
+			k -= data.length;
+		return data[k];
+	}
+
+	public double newest() {
+		return get(data.length - 1);
+	}
+
+	public double sum() { return sum; }
+
+	public double mean() { return sum / data.length; }
+
+	public int size() { return data.length; }
+
+	public long getPushCount() { return pushCount; }
+
+	public void fill(double value) {
+		for (int i = 0; i < data.length; i++)
+			data[i] = value;
+		sum = value * data.length;
+		sinceResum = 0;
+	}
+}
@@ -0,0 +1,20 @@
+package rubberband.math;
+
+/**
+ * A causal filter over a stream of samples. Implementations keep their state
+ * in preallocated fields, filter() must not allocate.
+ */
+public interface SignalFilter {
+
+	/**
+	 * Filters one sample.
+	 * 
+	 * @param value the new raw sample
+	 * @param dt seconds elapsed since the previous sample
+	 * @return the filtered value
+	 */
+	public double filter(double value, double dt);
+
+	/** Forgets the history, as if value had been the steady input. */
+	public void reset(double value);
+}
@@ -1,21 +1,48 @@
 package rubberband.math;
 
+/**
+ * Natural cubic spline through evenly spaced control points, segment j is
+ * a[j] + b[j]*dt + c[j]*dt^2 + d[j]*dt^3 for t in [j, j+1).
+ *
+ * The coefficient storage is reused by fit(), it only grows when a spline is
+ * refit with more control points than it has seen before.
+ */
 public class Spline {
 
 	private int n;
-	private float[] a, b, c, d;
-	private float[] x;
+	// read directly by CurvatureEngine
+	float[] a, b, c, d;
+	private float[] w;
+
+	public Spline(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
 
 	public Spline(float[] sp) {
-		float[] w;
-		float tmp;
-		n = sp.length;
+		this(sp.length);
+		fit(sp);
+	}
 
-		a = new float[n];
-		b = new float[n];
-		c = new float[n];
-		d = new float[n];
-		w = new float[n];
+	private void allocate(int capacity) {
+		a = new float[capacity];
+		b = new float[capacity];
+		c = new float[capacity];
+		d = new float[capacity];
+		w = new float[capacity];
+	}
+
+	public void fit(float[] sp) {
+		fit(sp, sp.length);
+	}
+
+	/** Refits the spline in place through the first count values of sp. */
+	public void fit(float[] sp, int count) {
+		float tmp;
+		if (count < 1)
+			throw new IllegalArgumentException("Spline needs at least one point");
+		if (count > a.length)
+			allocate(count);
+		n = count;
 
 		for (int i = 0; i < n; i++) {
 			a[i] = sp[i];
@@ -54,6 +81,9 @@ public class Spline {
 
 	}
 
+	/** Number of control points of the current fit. */
+	public int size() { return n; }
+
 	public float calc(float t) {
 		int j;
 		float dt;
@@ -62,11 +92,30 @@ public class Spline {
 
 		if (j < 0)
 			j = 0;
-		else if (j > n)
-			j = n;
+		else if (j > n - 1)
+			j = n - 1;
 
 		dt = t - (float) j;
 		return a[j] + (b[j] + (c[j] + d[j] * dt) * dt) * dt;
 	}
 
+	public void calc(float[] t, float[] out) {
+		calc(t, out, t.length);
+	}
+
+	/** Evaluates the spline at t[0..count) into out[0..count). */
+	public void calc(float[] t, float[] out, int count) {
+		int last = n - 1;
+		for (int i = 0; i < count; i++) {
+			float ti = t[i];
+			int j = (int) Math.floor(ti);
+			if (j < 0)
+				j = 0;
+			else if (j > last)
+				j = last;
+			float dt = ti - j;
+			out[i] = a[j] + (b[j] + (c[j] + d[j] * dt) * dt) * dt;
+		}
+	}
+
 }
@@ -142,11 +142,9 @@ class svm_predict {
 		System.exit(1);
 	}
 	
+	// allocates per call, use ShapeClassifier for repeated classification
 	public static int classifyJarLib(svm_model model, double[] values) throws IOException {
-		int M_LENGTH = 16;
-		
-		int svm_type=svm.svm_get_svm_type(model);
-		int nr_class=svm.svm_get_nr_class(model);
+		int M_LENGTH = Params.NUM_STRAIN_SENSORS;
 		
 		svm_node[] x = new svm_node[M_LENGTH];
 		for(int j=0;j<M_LENGTH;j++)